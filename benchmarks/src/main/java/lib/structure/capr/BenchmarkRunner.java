@@ -0,0 +1,34 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * @author Jan Hoinka
+ *
+ * Runs the benchmarks selected on the command line, which accepts all options of the
+ * JMH runner, with the GC profiler enabled, so that every result is accompanied by the
+ * allocation rate and the number of bytes allocated per operation.
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.build();
+
+		new Runner(options).run();
+
+	}
+
+}
@@ -0,0 +1,75 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import java.util.Random;
+
+/**
+ * @author Jan Hoinka
+ *
+ * The base composition of the sequences folded by the benchmarks
+ */
+public enum Composition {
+
+	/**
+	 * Uniformly random over <code>ACGU</code>
+	 */
+	RANDOM {
+		@Override
+		byte[] generate(int length, long seed) {
+			return random(length, new Random(seed), "ACGU");
+		}
+	},
+
+	/**
+	 * Random over <code>GC</code> only, the most stable and slowest to fold composition
+	 */
+	GC_RICH {
+		@Override
+		byte[] generate(int length, long seed) {
+			return random(length, new Random(seed), "GC");
+		}
+	},
+
+	/**
+	 * A random region flanked by the constant primers of a SELEX library, as folded
+	 * in aptamer selections. Sequences shorter than the primers are truncated primers.
+	 */
+	APTAMER {
+		@Override
+		byte[] generate(int length, long seed) {
+
+			int region = length - PRIMER_5.length() - PRIMER_3.length();
+			if (region < 0) {
+				// both primers are longer than half of the sequence
+				int half = (length + 1) / 2;
+				return (PRIMER_5.substring(0, half) + PRIMER_3.substring(PRIMER_3.length() - length + half)).getBytes();
+			}
+			return (PRIMER_5 + new String(random(region, new Random(seed), "ACGU")) + PRIMER_3).getBytes();
+
+		}
+	};
+
+	private static final String PRIMER_5 = "GGGAGACAAGAATAAACGCTCAA";
+
+	private static final String PRIMER_3 = "TTCGACAGGAGGCTCACAACAGGC";
+
+	/**
+	 * @param length
+	 * @param seed
+	 * @return a sequence of this composition
+	 */
+	abstract byte[] generate(int length, long seed);
+
+	private static byte[] random(int length, Random random, String alphabet) {
+
+		byte[] sequence = new byte[length];
+		for (int x = 0; x < length; x++) {
+			sequence[x] = (byte) alphabet.charAt(random.nextInt(alphabet.length()));
+		}
+		return sequence;
+
+	}
+
+}
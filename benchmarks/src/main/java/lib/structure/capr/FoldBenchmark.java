@@ -0,0 +1,79 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author Jan Hoinka
+ *
+ * Throughput of complete folds, i.e. <code>ComputeStructuralProfile</code> followed by
+ * <code>getStructuralProfile</code>, on a reused instance.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FoldBenchmark {
+
+	@Param({ "50", "200", "1000" })
+	int length;
+
+	/**
+	 * The maximal span, limited to the length of the sequence. The short span lies below
+	 * the shortest length, so that both spans remain distinct for every length.
+	 */
+	@Param({ "25", "150" })
+	int span;
+
+	@Param({ "RANDOM", "GC_RICH", "APTAMER" })
+	Composition composition;
+
+	@Param({ "LOG", "SCALED_LINEAR" })
+	Engine engine;
+
+	@Param({ "EXACT" })
+	LogSumExp kernel;
+
+	private CapR capr;
+
+	private byte[] sequence;
+
+	private int maximal_span;
+
+	@Setup
+	public void setup() {
+
+		sequence = composition.generate(length, 42);
+		maximal_span = Math.min(span, length);
+
+		capr = new CapR();
+		capr.setEngine(engine);
+		capr.setLogSumExp(kernel);
+
+	}
+
+	@Benchmark
+	public double[] fold() {
+
+		capr.ComputeStructuralProfile(sequence, maximal_span);
+		return capr.getStructuralProfile();
+
+	}
+
+}
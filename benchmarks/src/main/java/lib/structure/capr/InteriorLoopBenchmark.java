@@ -0,0 +1,102 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author Jan Hoinka
+ *
+ * Cost of the <code>int22</code> lookups of 2x2 interior loops, the largest energy table,
+ * in the flat layout of <code>EnergyModel</code> compared to the nested arrays it replaced.
+ * Keys are drawn at random, so that lookups are not served by a few cache lines only.
+ * Run with <code>-prof perfnorm</code> on Linux to count the cache misses per lookup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InteriorLoopBenchmark {
+
+	private static final int LOOKUPS = 1 << 16;
+
+	private double[] flat;
+
+	private double[][][][][][] nested;
+
+	/**
+	 * Pair types and nucleotides of each lookup
+	 */
+	private final byte[] keys = new byte[6 * LOOKUPS];
+
+	@Setup
+	public void setup() {
+
+		flat = EnergyModel.getDefault().int22;
+		nested = new double[8][8][5][5][5][5];
+		for (int i = 0; i < 8; i++) {
+			for (int j = 0; j < 8; j++) {
+				for (int k = 0; k < 5; k++) {
+					for (int l = 0; l < 5; l++) {
+						for (int m = 0; m < 5; m++) {
+							for (int n = 0; n < 5; n++) {
+								nested[i][j][k][l][m][n] = flat[EnergyModel.int22Index(i, j, k, l, m, n)];
+							}
+						}
+					}
+				}
+			}
+		}
+
+		Random random = new Random(42);
+		for (int x = 0; x < LOOKUPS; x++) {
+			keys[6 * x] = (byte) (1 + random.nextInt(6));
+			keys[6 * x + 1] = (byte) (1 + random.nextInt(6));
+			for (int y = 2; y < 6; y++) {
+				keys[6 * x + y] = (byte) (1 + random.nextInt(4));
+			}
+		}
+
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public double flat() {
+
+		double sum = 0.0;
+		for (int x = 0; x < 6 * LOOKUPS; x += 6) {
+			sum += flat[EnergyModel.int22Index(keys[x], keys[x + 1], keys[x + 2], keys[x + 3], keys[x + 4], keys[x + 5])];
+		}
+		return sum;
+
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public double nested() {
+
+		double sum = 0.0;
+		for (int x = 0; x < 6 * LOOKUPS; x += 6) {
+			sum += nested[keys[x]][keys[x + 1]][keys[x + 2]][keys[x + 3]][keys[x + 4]][keys[x + 5]];
+		}
+		return sum;
+
+	}
+
+}
@@ -0,0 +1,66 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author Jan Hoinka
+ *
+ * Throughput of the <code>logsumexp</code> kernels, accumulating log weights whose
+ * differences are spread like those of the recursions, including the <code>-INF</code>
+ * sentinel of empty cells.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LogSumExpBenchmark {
+
+	private static final int SIZE = 4096;
+
+	@Param({ "EXACT", "FAST" })
+	LogSumExp kernel;
+
+	private final double[] weights = new double[SIZE];
+
+	@Setup
+	public void setup() {
+
+		Random random = new Random(42);
+		for (int i = 0; i < SIZE; i++) {
+			weights[i] = random.nextInt(16) == 0 ? -EnergyPar.INF : 40.0 * random.nextDouble() - 20.0;
+		}
+
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	public double accumulate() {
+
+		double sum = -EnergyPar.INF;
+		for (int i = 0; i < SIZE; i++) {
+			sum = kernel.apply(sum, weights[i]);
+		}
+		return sum;
+
+	}
+
+}
@@ -0,0 +1,91 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author Jan Hoinka
+ *
+ * Throughput of the individual phases of a log-space fold. The instance is folded once
+ * during setup, after which each benchmark repeats a single phase on the tables of that
+ * fold: the inside recursions including <code>Alpha_outer</code>, the outside recursions
+ * including <code>Beta_outer</code>, and the extraction of the structural profile.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PhaseBenchmark {
+
+	@Param({ "50", "200", "1000" })
+	int length;
+
+	/**
+	 * The maximal span, limited to the length of the sequence. The short span lies below
+	 * the shortest length, so that both spans remain distinct for every length.
+	 */
+	@Param({ "25", "150" })
+	int span;
+
+	@Param({ "RANDOM", "GC_RICH", "APTAMER" })
+	Composition composition;
+
+	@Param({ "EXACT", "FAST" })
+	LogSumExp kernel;
+
+	private CapR capr;
+
+	@Setup
+	public void setup() {
+
+		capr = new CapR();
+		capr.setLogSumExp(kernel);
+		capr.ComputeStructuralProfile(composition.generate(length, 42), Math.min(span, length));
+
+	}
+
+	@Benchmark
+	public double inside() {
+
+		capr.ClearTables((double) -EnergyPar.INF);
+		capr._Alpha_outer[0] = 0.0;
+		capr._Beta_outer[capr._seq_length] = 0.0;
+		capr.CalcInsideVariable();
+		return capr._Alpha_outer[capr._seq_length];
+
+	}
+
+	@Benchmark
+	public double outside() {
+
+		capr.ClearOutsideTables((double) -EnergyPar.INF);
+		capr._Beta_outer[capr._seq_length] = 0.0;
+		capr.CalcOutsideVariable();
+		return capr._Beta_outer[0];
+
+	}
+
+	@Benchmark
+	public double[] profile() {
+
+		return capr.getStructuralProfile();
+
+	}
+
+}
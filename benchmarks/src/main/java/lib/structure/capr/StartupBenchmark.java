@@ -0,0 +1,78 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author Jan Hoinka
+ *
+ * Startup costs paid by every short CLI invocation. The <code>cold*</code> benchmarks
+ * measure the first use in a fresh JVM, including class initialization, hence run a single
+ * time per fork. The remaining ones measure loading the parameter snapshot and building an
+ * energy model once the classes are initialized.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StartupBenchmark {
+
+	/**
+	 * Initializes <code>InitLoops</code>, which loads the default parameter snapshot
+	 */
+	@Benchmark
+	@Warmup(iterations = 0)
+	@Measurement(iterations = 1)
+	@Fork(10)
+	public int coldInitLoops() {
+
+		return InitLoops.int22_37[7][7][4][4][4][4];
+
+	}
+
+	/**
+	 * Creates the first instance, which builds the default energy model
+	 */
+	@Benchmark
+	@Warmup(iterations = 0)
+	@Measurement(iterations = 1)
+	@Fork(10)
+	public CapR coldInstance() {
+
+		return new CapR();
+
+	}
+
+	@Benchmark
+	@Warmup(iterations = 10)
+	@Measurement(iterations = 20)
+	@Fork(1)
+	public LoopParameters readSnapshot() throws IOException {
+
+		try (InputStream is = LoopParameters.class.getClassLoader().getResourceAsStream(LoopParameters.DEFAULT_SNAPSHOT)) {
+			return LoopParameters.read(is);
+		}
+
+	}
+
+	@Benchmark
+	@Warmup(iterations = 10)
+	@Measurement(iterations = 20)
+	@Fork(1)
+	public EnergyModel buildModel() {
+
+		return new EnergyModel(37.0, LoopParameters.getDefault());
+
+	}
+
+}
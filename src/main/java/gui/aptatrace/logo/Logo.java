@@ -444,6 +444,12 @@ public class Logo {
 	 */
 	public void saveAsPDF(int width, int height, String fileName) 
 	{
+		LogoRenderEvent event = LogoRenderEvent.FACTORY.get();
+		if (event != null)
+		{
+			event.begin();
+		}
+		
 		if (chart == null)
 		{
 			makeSequenceLogo();
@@ -474,6 +480,11 @@ public class Logo {
 	        e.printStackTrace();
 	    }
 	    document.close();
+	    
+	    if (event != null)
+	    {
+	    	event.commit(this, width, height, fileName);
+	    }
 	}
 
 	/**
@@ -0,0 +1,28 @@
+package gui.aptatrace.logo;
+
+import java.util.function.Supplier;
+
+import lib.structure.capr.FlightRecording;
+
+/**
+ * Flight recorder event spanning <code>Logo.saveAsPDF</code>, i.e. rendering a sequence
+ * logo and writing it to a PDF file. 
+ */
+interface LogoRenderEvent
+{
+	/**
+	 * Creates new events, or null if flight recorder events are not available
+	 */
+	Supplier<LogoRenderEvent> FACTORY = FlightRecording.events(LogoRenderEvent.class, "gui.aptatrace.logo.JfrLogoRenderEvent");
+	
+	void begin();
+	
+	/**
+	 * Records the event, if enabled
+	 * @param logo the rendered logo
+	 * @param width
+	 * @param height
+	 * @param fileName
+	 */
+	void commit(Logo logo, int width, int height, String fileName);
+}
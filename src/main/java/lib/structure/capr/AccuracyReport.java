@@ -0,0 +1,201 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author Jan Hoinka
+ *
+ * Quantifies how far the structural profiles of a CapR configuration drift from those of
+ * a reference configuration, e.g. when replacing the exact <code>logsumexp</code> kernel
+ * with a faster approximation. Errors are collected per structural context over all
+ * positions of all compared sequences.
+ */
+public class AccuracyReport {
+
+	/**
+	 * Names of the contexts in the order they appear in <code>getStructuralProfile</code>
+	 */
+	public static final String[] CONTEXTS = {"Hairpin", "Bulge", "Internal", "Multi", "Exterior"};
+
+	/**
+	 * Largest absolute deviation for each context
+	 */
+	private double[] max_abs = new double[CONTEXTS.length];
+
+	/**
+	 * Sum of absolute deviations for each context
+	 */
+	private double[] sum_abs = new double[CONTEXTS.length];
+
+	/**
+	 * Number of positions compared per context
+	 */
+	private long positions = 0;
+
+	/**
+	 * Number of compared sequences
+	 */
+	private int sequences = 0;
+
+
+	/**
+	 * Folds every sequence with both instances and collects the deviation of
+	 * <code>candidate</code> from <code>reference</code>.
+	 * @param reference the instance considered exact
+	 * @param candidate the instance to evaluate
+	 * @param sequences the sequences to fold
+	 * @param maximal_span the maximal span, or a value &lt;= 0 to use the sequence length
+	 * @return the report
+	 */
+	public static AccuracyReport compare(CapR reference, CapR candidate, List<byte[]> sequences, int maximal_span) {
+
+		AccuracyReport report = new AccuracyReport();
+
+		for (byte[] sequence : sequences) {
+
+			int span = maximal_span > 0 ? maximal_span : sequence.length;
+
+			reference.ComputeStructuralProfile(sequence, span);
+			double[] expected = reference.getStructuralProfile();
+
+			candidate.ComputeStructuralProfile(sequence, span);
+			double[] actual = candidate.getStructuralProfile();
+
+			report.add(expected, actual);
+		}
+
+		return report;
+	}
+
+	/**
+	 * Adds the deviations of a single pair of profiles to the report
+	 * @param expected the profile computed with the reference configuration
+	 * @param actual the profile computed with the evaluated configuration
+	 */
+	public void add(double[] expected, double[] actual) {
+
+		if (expected.length != actual.length) {
+			throw new IllegalArgumentException("Profiles of different size (" + expected.length + " vs " + actual.length + ") cannot be compared");
+		}
+
+		int length = expected.length / CONTEXTS.length;
+
+		for (int c = 0; c < CONTEXTS.length; c++) {
+			for (int x = c * length; x < (c + 1) * length; x++) {
+				double error = Math.abs(expected[x] - actual[x]);
+				if (Double.isNaN(error)) {
+					error = Double.POSITIVE_INFINITY;
+				}
+				max_abs[c] = Math.max(max_abs[c], error);
+				sum_abs[c] += error;
+			}
+		}
+
+		positions += length;
+		sequences++;
+	}
+
+	/**
+	 * @return the largest absolute deviation over all contexts
+	 */
+	public double getMaxAbsoluteError() {
+
+		double max = 0.0;
+		for (double error : max_abs) {
+			max = Math.max(max, error);
+		}
+		return max;
+	}
+
+	/**
+	 * @return the mean absolute deviation over all contexts and positions
+	 */
+	public double getMeanAbsoluteError() {
+
+		double sum = 0.0;
+		for (double error : sum_abs) {
+			sum += error;
+		}
+		return positions == 0 ? 0.0 : sum / (positions * CONTEXTS.length);
+	}
+
+	@Override
+	public String toString() {
+
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("Compared %s sequences (%s positions)%n", sequences, positions));
+		sb.append(String.format("%-10s %14s %14s%n", "Context", "max |error|", "mean |error|"));
+		for (int c = 0; c < CONTEXTS.length; c++) {
+			sb.append(String.format("%-10s %14.4e %14.4e%n", CONTEXTS[c], max_abs[c], positions == 0 ? 0.0 : sum_abs[c] / positions));
+		}
+		sb.append(String.format("%-10s %14.4e %14.4e%n", "All", getMaxAbsoluteError(), getMeanAbsoluteError()));
+		return sb.toString();
+	}
+
+	/**
+	 * Generates random sequences over <code>ACGU</code>
+	 * @param count number of sequences
+	 * @param length length of each sequence
+	 * @param seed seed of the random number generator
+	 */
+	public static List<byte[]> randomSequences(int count, int length, long seed) {
+
+		byte[] alphabet = {'A', 'C', 'G', 'U'};
+		Random random = new Random(seed);
+		List<byte[]> sequences = new ArrayList<byte[]>(count);
+
+		for (int s = 0; s < count; s++) {
+			byte[] sequence = new byte[length];
+			for (int x = 0; x < length; x++) {
+				sequence[x] = alphabet[random.nextInt(alphabet.length)];
+			}
+			sequences.add(sequence);
+		}
+
+		return sequences;
+	}
+
+	/**
+	 * Prints the drift of a CapR configuration from the default configuration on random sequences.
+	 * @param args <code>[mode] [number of sequences] [sequence length] [maximal span]</code>, where
+	 * mode is one of <code>lse</code> (the fast <code>logsumexp</code> kernel, default), <code>linear</code>
+	 * (the scaled linear domain engine) or <code>float</code> (tables stored in single precision). Defaults to 100 sequences of length 100 folded globally.
+	 */
+	public static void main(String[] args) {
+
+		String mode = "lse";
+		if (args.length > 0 && !Character.isDigit(args[0].charAt(0))) {
+			mode = args[0];
+			args = Arrays.copyOfRange(args, 1, args.length);
+		}
+
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		int length = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		int span = args.length > 2 ? Integer.parseInt(args[2]) : length;
+
+		CapR reference = new CapR();
+		CapR candidate = new CapR();
+
+		if (mode.equals("lse")) {
+			candidate.setLogSumExp(LogSumExp.FAST);
+			System.out.println("LogSumExp.FAST vs LogSumExp.EXACT");
+		} else if (mode.equals("linear")) {
+			candidate.setEngine(Engine.SCALED_LINEAR);
+			System.out.println("Engine.SCALED_LINEAR vs Engine.LOG");
+		} else if (mode.equals("float")) {
+			candidate.setTablePrecision(TablePrecision.FLOAT);
+			System.out.println("TablePrecision.FLOAT vs TablePrecision.DOUBLE");
+		} else {
+			throw new IllegalArgumentException("Unknown mode " + mode + ", expected lse, linear or float");
+		}
+
+		System.out.print(compare(reference, candidate, randomSequences(count, length, 42), span));
+	}
+
+}
@@ -0,0 +1,318 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Jan Hoinka
+ *
+ * Limits the memory of concurrent folds to a budget. Before a sequence is folded, the
+ * heap footprint of its tables is predicted by a <code>CostEstimator</code> and reserved from
+ * the budget until the fold completed. Folds which do not fit are queued, computed with a
+ * smaller maximal span, or rejected, depending on the <code>AdmissionPolicy</code>. This
+ * turns a sequence too long for the heap into a predictable rejection instead of an
+ * <code>OutOfMemoryError</code> halfway through a batch.
+ *
+ * Waiting folds are admitted in the order they arrived, so that large folds are not
+ * starved by a stream of smaller ones. Since the tables of pooled instances keep the size of
+ * their largest fold, instances whose workspace exceeds <code>getRetainedBytes()</code> are
+ * released after their fold, by default all of them. Allocating tables is cheap compared
+ * to filling them.
+ *
+ * The budget covers the heap only. Tables stored in <code>TableStorage.DIRECT</code> or
+ * <code>TableStorage.MAPPED</code> are not counted against it, as they are bounded by
+ * <code>-XX:MaxDirectMemorySize</code> and the disk instead, so that folds of these
+ * instances merely reserve their row stamps, outer tables and profile.
+ */
+public class AdmissionController {
+
+	private final CapRPool pool;
+
+	private final CostEstimator estimator;
+
+	private final long budget_bytes;
+
+	private final AdmissionPolicy policy;
+
+	/**
+	 * The engine, table precision and storage of the pooled instances, which the estimates
+	 * are made for
+	 */
+	private final Engine engine;
+
+	private final TablePrecision precision;
+
+	private final TableStorage storage;
+
+	/**
+	 * Bytes reserved by admitted folds
+	 */
+	private long reserved_bytes = 0;
+
+	/**
+	 * Folds waiting for admission, in order of arrival
+	 */
+	private final ArrayDeque<Object> waiting = new ArrayDeque<Object>();
+
+	/**
+	 * Longest time a fold waits for admission before it is rejected
+	 */
+	private volatile long max_wait_nanos = Long.MAX_VALUE;
+
+	/**
+	 * Largest workspace a pooled instance keeps after its fold
+	 */
+	private volatile long retained_bytes = 0;
+
+	/**
+	 * A part of the budget reserved for a single fold, which has to be closed once the fold
+	 * completed
+	 */
+	public final class Reservation implements AutoCloseable {
+
+		private final CostEstimate estimate;
+
+		private boolean closed = false;
+
+		private Reservation(CostEstimate estimate) {
+			this.estimate = estimate;
+		}
+
+		/**
+		 * @return the maximal span to fold with, which is smaller than the requested one if it was downgraded
+		 */
+		public int getMaximalSpan() {
+			return estimate.getMaximalSpan();
+		}
+
+		/**
+		 * @return the predicted cost of the fold, the reserved bytes in particular
+		 */
+		public CostEstimate getEstimate() {
+			return estimate;
+		}
+
+		/**
+		 * Returns the reserved bytes to the budget. Subsequent calls have no effect.
+		 */
+		@Override
+		public void close() {
+			synchronized (AdmissionController.this) {
+				if (!closed) {
+					closed = true;
+					reserved_bytes -= estimate.getBytes();
+					AdmissionController.this.notifyAll();
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Creates a controller predicting footprints with a default <code>CostEstimator</code>
+	 * @see #AdmissionController(CapRPool, long, AdmissionPolicy, CostEstimator)
+	 */
+	public AdmissionController(CapRPool pool, long budget_bytes, AdmissionPolicy policy) {
+		this(pool, budget_bytes, policy, new CostEstimator());
+	}
+
+	/**
+	 * @param pool the instances to fold with, all of which have to use the same engine and table precision
+	 * @param budget_bytes the heap memory available to all concurrent folds
+	 * @param policy how to treat folds which do not fit into the budget
+	 * @param estimator predicts the footprint of a fold
+	 */
+	public AdmissionController(CapRPool pool, long budget_bytes, AdmissionPolicy policy, CostEstimator estimator) {
+
+		if (budget_bytes <= 0) {
+			throw new IllegalArgumentException("The memory budget (" + budget_bytes + ") must be positive");
+		}
+
+		this.pool = pool;
+		this.budget_bytes = budget_bytes;
+		this.policy = policy;
+		this.estimator = estimator;
+
+		CapR capr = pool.acquire();
+		this.engine = capr.getEngine();
+		this.precision = capr.getTablePrecision();
+		this.storage = capr.getTableStorage();
+		pool.release(capr);
+
+	}
+
+	/**
+	 * Folds <code>sequence</code> on a pooled instance once admitted and returns its profile.
+	 * This method can be called from any number of threads at once.
+	 * @param sequence
+	 * @param maximal_span the maximal span, or a value &lt;= 0 to use the length of the sequence
+	 * @return the profile in the layout of <code>CapR.getStructuralProfile</code>
+	 * @throws RejectedExecutionException if the fold was rejected
+	 * @throws CompletionException if the calling thread was interrupted while waiting for admission
+	 */
+	public double[] getStructuralProfile(byte[] sequence, int maximal_span) {
+
+		try (Reservation reservation = admit(sequence.length, maximal_span)) {
+			CapR capr = pool.acquire();
+			try {
+				capr.ComputeStructuralProfile(sequence, reservation.getMaximalSpan());
+				return capr.getStructuralProfile();
+			} finally {
+				if (capr.getWorkspaceBytes() > retained_bytes) {
+					capr.ReleaseWorkspace();
+				}
+				pool.release(capr);
+			}
+		}
+
+	}
+
+	/**
+	 * Reserves the predicted footprint of a fold from the budget, waiting for other folds to
+	 * complete if required by the policy. The caller folds with the span of the reservation
+	 * on an instance without a larger workspace, and closes the reservation afterwards.
+	 * @param length the length of the sequence to fold
+	 * @param maximal_span the maximal span, or a value &lt;= 0 to use the length of the sequence
+	 * @return the reservation
+	 * @throws RejectedExecutionException if the fold was rejected
+	 * @throws CompletionException if the calling thread was interrupted while waiting
+	 */
+	public Reservation admit(int length, int maximal_span) {
+
+		int span = maximal_span > 0 ? maximal_span : length;
+		CostEstimate estimate = estimator.estimate(length, span, engine, precision, storage);
+
+		if (estimate.getBytes() > budget_bytes) {
+			if (policy != AdmissionPolicy.DOWNGRADE_SPAN) {
+				throw new RejectedExecutionException("The fold of " + length + " nucleotides with a maximal span of " + span
+						+ " requires " + estimate.getBytes() + " bytes, exceeding the budget of " + budget_bytes + " bytes");
+			}
+			estimate = downgrade(length, span);
+		}
+
+		synchronized (this) {
+
+			if (policy == AdmissionPolicy.REJECT) {
+				if (estimate.getBytes() > budget_bytes - reserved_bytes) {
+					throw new RejectedExecutionException("The fold of " + length + " nucleotides requires " + estimate.getBytes()
+							+ " bytes, but only " + (budget_bytes - reserved_bytes) + " bytes of the budget are available");
+				}
+				reserved_bytes += estimate.getBytes();
+				return new Reservation(estimate);
+			}
+
+			Object ticket = new Object();
+			waiting.add(ticket);
+			long max_wait = max_wait_nanos;
+			long start = System.nanoTime();
+			try {
+				while (waiting.peek() != ticket || estimate.getBytes() > budget_bytes - reserved_bytes) {
+					if (max_wait == Long.MAX_VALUE) {
+						wait();
+					} else {
+						long remaining = max_wait - (System.nanoTime() - start);
+						if (remaining <= 0) {
+							throw new RejectedExecutionException("The fold of " + length + " nucleotides was not admitted within "
+									+ TimeUnit.NANOSECONDS.toMillis(max_wait) + " ms");
+						}
+						TimeUnit.NANOSECONDS.timedWait(this, remaining);
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CompletionException(e);
+			} finally {
+				// on success the ticket is at the head, otherwise the next fold may now be at the head
+				waiting.remove(ticket);
+				notifyAll();
+			}
+
+			reserved_bytes += estimate.getBytes();
+			return new Reservation(estimate);
+		}
+
+	}
+
+	/**
+	 * Finds the largest span below <code>maximal_span</code> whose footprint fits into the budget
+	 * @throws RejectedExecutionException if there is none
+	 */
+	private CostEstimate downgrade(int length, int maximal_span) {
+
+		if (CostEstimator.estimateBytes(length, 1, engine, precision, storage) > budget_bytes) {
+			throw new RejectedExecutionException("The fold of " + length + " nucleotides exceeds the budget of "
+					+ budget_bytes + " bytes for any maximal span");
+		}
+
+		// the footprint grows with the span
+		int low = 1;
+		int high = maximal_span - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (CostEstimator.estimateBytes(length, middle, engine, precision, storage) <= budget_bytes) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return estimator.estimate(length, low, engine, precision, storage);
+
+	}
+
+	/**
+	 * Rejects folds which were not admitted within <code>timeout</code>. Defaults to
+	 * waiting indefinitely.
+	 * @param timeout
+	 * @param unit
+	 */
+	public void setMaxWait(long timeout, TimeUnit unit) {
+		if (timeout < 0) {
+			throw new IllegalArgumentException("The timeout (" + timeout + ") must not be negative");
+		}
+		max_wait_nanos = unit.toNanos(timeout);
+	}
+
+	/**
+	 * Lets pooled instances keep workspaces of up to <code>retained_bytes</code> after a fold.
+	 * The memory held by idle instances is not part of the budget. Defaults to 0.
+	 * @param retained_bytes
+	 */
+	public void setRetainedBytes(long retained_bytes) {
+		if (retained_bytes < 0) {
+			throw new IllegalArgumentException("The retained workspace (" + retained_bytes + ") must not be negative");
+		}
+		this.retained_bytes = retained_bytes;
+	}
+
+	public long getRetainedBytes() {
+		return retained_bytes;
+	}
+
+	public long getBudgetBytes() {
+		return budget_bytes;
+	}
+
+	public AdmissionPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * @return the bytes currently reserved by admitted folds
+	 */
+	public synchronized long getReservedBytes() {
+		return reserved_bytes;
+	}
+
+	/**
+	 * @return the number of folds waiting for admission
+	 */
+	public synchronized int getWaitingCount() {
+		return waiting.size();
+	}
+
+}
@@ -0,0 +1,32 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+/**
+ * @author Jan Hoinka
+ *
+ * How an <code>AdmissionController</code> treats a fold whose predicted footprint does not
+ * fit into the memory budget.
+ */
+public enum AdmissionPolicy {
+
+	/**
+	 * The fold waits until enough of the budget has been released by other folds. Folds
+	 * exceeding the whole budget are rejected.
+	 */
+	QUEUE,
+
+	/**
+	 * Folds exceeding the whole budget are computed with the largest maximal span that fits
+	 * into it, and then wait like with <code>QUEUE</code>. Folds for which not even a span of
+	 * a single nucleotide fits are rejected.
+	 */
+	DOWNGRADE_SPAN,
+
+	/**
+	 * The fold is rejected unless it fits into the remaining budget right away
+	 */
+	REJECT
+
+}
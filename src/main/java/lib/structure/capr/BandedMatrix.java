@@ -0,0 +1,241 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import java.util.Arrays;
+
+/**
+ * @author Jan Hoinka
+ *
+ * Primitive storage for the banded dynamic programming tables of CapR. Cells are
+ * addressed by the start position of a subsequence (the row) and its span (the column),
+ * which are transparently translated into an index of a single <code>double[]</code>.
+ * The backing array is reused across calls to <code>reshape</code>.
+ *
+ * Clearing the matrix is done lazily. Every row carries the epoch in which it was last
+ * written. <code>clear</code> merely starts a new epoch, rows of older epochs read as the
+ * default value, and a row is only overwritten with the default value once it receives
+ * its first write of the current epoch.
+ */
+public class BandedMatrix {
+
+	/**
+	 * The array storing the matrix data in row major order.
+	 */
+	private double[] data = null;
+
+
+	/**
+	 * The number of rows of the matrix
+	 */
+	int rows = 0;
+
+
+	/**
+	 * The number of columns of the matrix
+	 */
+	int cols = 0;
+
+
+	/**
+	 * The epoch in which each row was last written
+	 */
+	int[] stamps = null;
+
+
+	/**
+	 * The current epoch. Rows with a different stamp are considered to be cleared.
+	 */
+	int epoch = 0;
+
+
+	/**
+	 * The value of all cells which have not been written in the current epoch
+	 */
+	double default_value = 0.0;
+
+
+	/**
+	 * Initialize the matrix in a "row major" manner. All values are initially set to 0.
+	 * @param rows number of rows
+	 * @param cols number of columns
+	 */
+	public BandedMatrix(int rows, int cols){
+
+		if (rows <= 0 || cols <= 0){
+			throw new IndexOutOfBoundsException("The number of rows (" + rows + ") or columns (" + cols + ") is invalid");
+		}
+
+		data = new double[heapCells(rows, cols)];
+		stamps = new int[rows];
+		this.rows = rows;
+		this.cols = cols;
+
+	}
+
+	public BandedMatrix(){
+
+		data = new double[0];
+		stamps = new int[0];
+		this.rows = 0;
+		this.cols = 0;
+
+	}
+
+
+	/**
+	 * Sets the cell corresponding  to (<code>row</code>,<code>col</code>) of the matrix to <code>value</code>.
+	 * @throws IndexOutOfBoundsException If row or column exceeds the matrix dimension.
+	 * @param row the start position
+	 * @param col the span
+	 * @param value
+	 */
+	public void set(int row, int col, double value){
+
+		if (stamps[row] != epoch){
+			Arrays.fill(data, cols * row, cols * row + cols, default_value);
+			stamps[row] = epoch;
+		}
+
+		data[cols * row + col] = value;
+
+	}
+
+	/**
+	 * Gets the values of the cell corresponding  to (<code>row</code>,<code>col</code>).
+	 * @throws IndexOutOfBoundsException If row or column exceeds the matrix dimension.
+	 * @param row the start position
+	 * @param col the span
+	 */
+	public double get(int row, int col){
+
+		return stamps[row] == epoch ? data[cols * row + col] : default_value;
+
+	}
+
+
+	/**
+	 * Sets all values of the matrix to <code>default_value</code>. This runs in constant
+	 * time, the cells are only overwritten once their row is written again.
+	 */
+	public void clear(double default_value){
+
+		// on overflow, invalidate all stamps explicitly before starting over
+		if (epoch == Integer.MAX_VALUE){
+			Arrays.fill(stamps, 0);
+			epoch = 0;
+		}
+
+		epoch++;
+		this.default_value = default_value;
+
+	}
+
+	/**
+	 * Writes the default value to all rows which have not been written in the current
+	 * epoch. Afterwards, rows can safely be written by several threads, as long as no
+	 * two threads write the same cell.
+	 */
+	public void materialize(){
+
+		for (int row = 0; row < rows; row++){
+			if (stamps[row] != epoch){
+				Arrays.fill(data, cols * row, cols * row + cols, default_value);
+				stamps[row] = epoch;
+			}
+		}
+
+	}
+
+	/**
+	 * Copies the rows <code>[from,to)</code> to <code>buffer</code>, starting at <code>offset</code>.
+	 * Rows which have not been written in the current epoch are copied as default values.
+	 */
+	public void copyRowsTo(int from, int to, double[] buffer, int offset){
+
+		for (int row = from; row < to; row++, offset += cols){
+			if (stamps[row] == epoch){
+				System.arraycopy(data, cols * row, buffer, offset, cols);
+			} else {
+				Arrays.fill(buffer, offset, offset + cols, default_value);
+			}
+		}
+
+	}
+
+	/**
+	 * Overwrites the rows <code>[from,to)</code> with the values of <code>buffer</code>, starting
+	 * at <code>offset</code>, as stored by <code>copyRowsTo</code>.
+	 */
+	public void copyRowsFrom(int from, int to, double[] buffer, int offset){
+
+		for (int row = from; row < to; row++, offset += cols){
+			System.arraycopy(buffer, offset, data, cols * row, cols);
+			stamps[row] = epoch;
+		}
+
+	}
+
+	/**
+	 * @return the number of bytes held by the backing arrays, which may exceed the size of
+	 * the current dimension
+	 */
+	public long getAllocatedBytes(){
+
+		return 8L * data.length + 4L * stamps.length;
+
+	}
+
+	/**
+	 * Frees the backing arrays, leaving an empty matrix to be reshaped before its next use
+	 */
+	public void release(){
+
+		data = new double[0];
+		stamps = new int[0];
+		rows = 0;
+		cols = 0;
+
+	}
+
+	/**
+	 * @return the number of cells of a matrix with <code>rows</code> rows and <code>cols</code> columns
+	 * @throws IllegalArgumentException if they do not fit into a Java array
+	 */
+	static int heapCells(int rows, int cols){
+
+		long cells = (long) rows * cols;
+		if (cells > Integer.MAX_VALUE - 8){
+			throw new IllegalArgumentException("A table of " + rows + " rows and " + cols + " columns exceeds the size of a Java array, use TableStorage.DIRECT or TableStorage.MAPPED");
+		}
+		return (int) cells;
+
+	}
+
+	/**
+	 * Changes the dimension of the matrix and allocates more space if required.
+	 * The backing array only ever grows, so that consecutive folds of sequences of
+	 * similar size do not reallocate. If the number of columns is unchanged, the
+	 * existing rows keep their values.
+	 * @param rows
+	 * @param cols
+	 */
+	public BandedMatrix reshape(int rows, int cols){
+
+		// resize data if required
+		int cells = heapCells(rows, cols);
+		if (data.length < cells){
+			data = Arrays.copyOf(data, cells);
+		}
+		if (stamps.length < rows){
+			stamps = Arrays.copyOf(stamps, rows);
+		}
+
+		this.rows = rows;
+		this.cols = cols;
+
+		return this;
+	}
+
+}
@@ -3,7 +3,11 @@
  */
 package lib.structure.capr;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * @author Jan Hoinka 
@@ -17,292 +21,1052 @@ public class CapR {
 
 	int _maximal_span;
 
-	double[] hairpin = new double[31];
-	double[][][] mismatchH = new double[7][5][5];
-	double[][][] mismatchI = new double[7][5][5];
-	double[][] stack = new double[7][7];
-	double[] bulge = new double[31];
+	/**
+	 * The shared energy model, the arrays below are references into it and must not be modified.
+	 * All of them are replaced when the temperature is changed.
+	 */
+	EnergyModel _model;
+	double kT;
+
+	double[] hairpin;
+	double[] mismatchH;
+	double[] mismatchI;
+	double[] stack;
+	double[] bulge;
 	double TermAU;
-	double[][][][] int11 = new double[8][8][5][5];
-	double[][][][][] int21 = new double[8][8][5][5][5];
-	double[][][][][][] int22 = new double[8][8][5][5][5][5];
-	double[] internal = new double[31];
+	double[] int11;
+	double[] int21;
+	double[] int22;
+	double[] internal;
 	double MLclosing;
 	double MLintern;
 	double MLbase;
-	double[][] dangle5 = new double[8][5];
-	double[][] dangle3 = new double[8][5];
-	double[] ninio = new double[EnergyPar.MAXLOOP + 1];
+	double[] dangle5;
+	double[] dangle3;
+	double[] ninio;
 
-	ArrayList<Integer> _int_sequence = new ArrayList<Integer>();
+	/**
+	 * The encoded sequence of the current fold, 1-based, see <code>Encode</code>
+	 */
+	byte[] _int_sequence = new byte[0];
 	int _seq_length;
 
-	ArrayList<Double> _Alpha_outer = new ArrayList<Double>();
-	DataMatrix<Double> _Alpha_stem = new DataMatrix<Double>();
-	DataMatrix<Double> _Alpha_stemend = new DataMatrix<Double>();
-	DataMatrix<Double> _Alpha_multi = new DataMatrix<Double>();
-	DataMatrix<Double> _Alpha_multibif = new DataMatrix<Double>();
-	DataMatrix<Double> _Alpha_multi1 = new DataMatrix<Double>();
-	DataMatrix<Double> _Alpha_multi2 = new DataMatrix<Double>();
-
-	ArrayList<Double> _Beta_outer = new ArrayList<Double>();
-	DataMatrix<Double> _Beta_stem = new DataMatrix<Double>();
-	DataMatrix<Double> _Beta_stemend = new DataMatrix<Double>();
-	DataMatrix<Double> _Beta_multi = new DataMatrix<Double>();
-	DataMatrix<Double> _Beta_multibif = new DataMatrix<Double>();
-	DataMatrix<Double> _Beta_multi1 = new DataMatrix<Double>();
-	DataMatrix<Double> _Beta_multi2 = new DataMatrix<Double>();
+	/**
+	 * The pair types <code>EnergyPar.BP_pair</code> of all nucleotides <code>a &lt;= b</code> at a
+	 * distance of at most <code>_maximal_span + 2</code>, stored at <code>a * _pair_cols + b - a</code>
+	 */
+	byte[] _pair_type = new byte[0];
+	int _pair_cols;
+
+	/**
+	 * The nucleotides corresponding to the codes of <code>_int_sequence</code>
+	 */
+	static final byte[] NUCLEOTIDES = { 'N', 'A', 'C', 'G', 'U' };
+
+	double[] _Alpha_outer = new double[0];
+	BandedMatrix _Alpha_stem = new BandedMatrix();
+	BandedMatrix _Alpha_stemend = new BandedMatrix();
+	BandedMatrix _Alpha_multi = new BandedMatrix();
+	BandedMatrix _Alpha_multibif = new BandedMatrix();
+	BandedMatrix _Alpha_multi1 = new BandedMatrix();
+	BandedMatrix _Alpha_multi2 = new BandedMatrix();
+
+	double[] _Beta_outer = new double[0];
+	BandedMatrix _Beta_stem = new BandedMatrix();
+	BandedMatrix _Beta_stemend = new BandedMatrix();
+	BandedMatrix _Beta_multi = new BandedMatrix();
+	BandedMatrix _Beta_multibif = new BandedMatrix();
+	BandedMatrix _Beta_multi1 = new BandedMatrix();
+	BandedMatrix _Beta_multi2 = new BandedMatrix();
+
+	LogSumExp _logsumexp = LogSumExp.EXACT;
+
+	/**
+	 * The precision the inside and outside tables are stored in
+	 */
+	TablePrecision _precision = TablePrecision.DOUBLE;
+
+	/**
+	 * The memory the inside and outside tables are stored in, and the directory of their
+	 * files for <code>TableStorage.MAPPED</code>, or null for the default temporary directory
+	 */
+	TableStorage _storage = TableStorage.HEAP;
+
+	File _spill_directory = null;
+
+	Engine _engine = Engine.LOG;
+	
+	/**
+	 * The engine the tables of the last fold were computed with. This can differ from
+	 * <code>_engine</code> if the linear domain had to fall back to the log domain.
+	 */
+	Engine _computed_engine = Engine.LOG;
+
+	/**
+	 * Whether the outside tables hold a mutant of the last mutation scan instead of the
+	 * wild type, see <code>ComputeMutationScan</code>
+	 */
+	boolean _outside_stale = false;
+	
+	ScaledLinearEngine _linear = null;
+
+	/**
+	 * Pool used to parallelize a single fold, or null for serial execution
+	 */
+	ForkJoinPool _pool = null;
+
+	/**
+	 * Minimal number of cells computed by a single parallel task
+	 */
+	int _grain_size = 16;
+
+	/**
+	 * Receives the timings and statistics of all folds, or null
+	 */
+	FoldListener _listener = null;
+
+	/**
+	 * Whether <code>logsumexp</code> evaluations are counted, which is only the case during
+	 * the inside and outside recursions of a fold while a listener is attached
+	 */
+	boolean _count_logsumexp = false;
+
+	/**
+	 * The <code>logsumexp</code> evaluations of the current fold, counted by the folding
+	 * thread of a serial fold, or by the workers of a parallel one
+	 */
+	long _logsumexp_count = 0;
+
+	final LongAdder _logsumexp_calls = new LongAdder();
+
+	/**
+	 * Durations of the phases of the current fold and profile in nanoseconds, indexed by
+	 * the ordinal of their <code>FoldPhase</code>
+	 */
+	final long[] _phase_nanos = new long[FoldPhase.values().length];
 
+	/**
+	 * Creates an instance using the shared default energy model at 37 degrees Celsius.
+	 *
+	 * An instance holds the dynamic programming tables of its last fold and must not be used
+	 * by several threads at once. Instances are cheap to create since the energy model is
+	 * shared, so concurrent folds should use one instance per thread, e.g. from a
+	 * <code>CapRPool</code>.
+	 */
 	public CapR(){
-		set_energy_parameters();
+		this(EnergyModel.getDefault());
+	}
+
+	/**
+	 * Creates an instance folding with the given energy model.
+	 * @param model
+	 */
+	public CapR(EnergyModel model){
+		UseEnergyModel(model);
+	}
+
+	/**
+	 * Points the energy parameters of this instance to <code>model</code>
+	 */
+	private void UseEnergyModel(EnergyModel model){
+		_model = model;
+		kT = model.kT;
+
+		hairpin = model.hairpin;
+		mismatchH = model.mismatchH;
+		mismatchI = model.mismatchI;
+		stack = model.stack;
+		bulge = model.bulge;
+		TermAU = model.TermAU;
+		int11 = model.int11;
+		int21 = model.int21;
+		int22 = model.int22;
+		internal = model.internal;
+		MLclosing = model.MLclosing;
+		MLintern = model.MLintern;
+		MLbase = model.MLbase;
+		dangle5 = model.dangle5;
+		dangle3 = model.dangle3;
+		ninio = model.ninio;
+	}
+
+	public EnergyModel getEnergyModel() {
+		return _model;
+	}
+
+	/**
+	 * Folds all subsequent sequences with <code>model</code>. The tables of the last fold
+	 * are not recomputed.
+	 * @param model
+	 */
+	public void setEnergyModel(EnergyModel model) {
+		if (model != _model) {
+			UseEnergyModel(model);
+			// the linear engine holds the Boltzmann factors of the previous model
+			_linear = null;
+		}
+	}
+
+	/**
+	 * Folds all subsequent sequences at <code>temperature</code>, using the cached
+	 * energy model of <code>EnergyModel.forTemperature</code>, i.e. with the Boltzmann
+	 * factors of the free energies at 37 degrees Celsius rescaled to <code>temperature</code>.
+	 * Enthalpies are not modelled.
+	 * @param temperature in degrees Celsius
+	 */
+	public void setTemperature(double temperature) {
+		setEnergyModel(EnergyModel.forTemperature(temperature));
+	}
+
+	/**
+	 * @return the temperature of the energy model in degrees Celsius
+	 */
+	public double getTemperature() {
+		return _model.temperature;
+	}
+
+	/**
+	 * Selects the kernel used for all log-space accumulations of this instance.
+	 * Defaults to <code>LogSumExp.EXACT</code>.
+	 * @param kernel
+	 */
+	public void setLogSumExp(LogSumExp kernel) {
+		_logsumexp = kernel;
+	}
+
+	public LogSumExp getLogSumExp() {
+		return _logsumexp;
+	}
+
+	/**
+	 * Selects the partition function engine of this instance. Defaults to
+	 * <code>Engine.LOG</code>.
+	 * @param engine
+	 */
+	public void setEngine(Engine engine) {
+		_engine = engine;
+	}
+
+	public Engine getEngine() {
+		return _engine;
+	}
+
+	/**
+	 * Selects the precision the inside and outside tables are stored in. Defaults to
+	 * <code>TablePrecision.DOUBLE</code>. Changing the precision discards the tables of the
+	 * last fold.
+	 * @param precision
+	 */
+	public void setTablePrecision(TablePrecision precision) {
+		if (precision == _precision) {
+			return;
+		}
+		_precision = precision;
+		AllocateTables();
+	}
+
+	public TablePrecision getTablePrecision() {
+		return _precision;
+	}
+
+	/**
+	 * Selects the memory the inside and outside tables are stored in. Defaults to
+	 * <code>TableStorage.HEAP</code>, which limits a table to 2^31 cells. Folds exceeding
+	 * this limit, or the heap, require <code>TableStorage.DIRECT</code> or, to spill the
+	 * tables to the local disk, <code>TableStorage.MAPPED</code>. Direct tables are limited by
+	 * <code>-XX:MaxDirectMemorySize</code>, which defaults to <code>-Xmx</code>, so that large
+	 * folds either raise it or use <code>TableStorage.MAPPED</code>. Pair types are then looked
+	 * up from the sequence instead of being cached per fold. Changing the storage discards
+	 * the tables of the last fold.
+	 * @param storage
+	 */
+	public void setTableStorage(TableStorage storage) {
+		if (storage == _storage) {
+			return;
+		}
+		_storage = storage;
+		AllocateTables();
+	}
+
+	public TableStorage getTableStorage() {
+		return _storage;
+	}
+
+	/**
+	 * Sets the directory the tables of <code>TableStorage.MAPPED</code> are stored in, which
+	 * should reside on a local disk. Defaults to null, i.e. <code>java.io.tmpdir</code>.
+	 * Changing the directory of mapped tables discards the tables of the last fold.
+	 * @param spill_directory
+	 */
+	public void setSpillDirectory(File spill_directory) {
+		_spill_directory = spill_directory;
+		if (_storage == TableStorage.MAPPED) {
+			AllocateTables();
+		}
+	}
+
+	public File getSpillDirectory() {
+		return _spill_directory;
+	}
+
+	/**
+	 * Replaces all inside and outside tables by empty ones of the current precision and storage
+	 */
+	private void AllocateTables() {
+		Clear();
+		BandedMatrix[] tables = new BandedMatrix[12];
+		for (int t = 0; t < tables.length; t++) {
+			if (_storage != TableStorage.HEAP) {
+				tables[t] = new OffHeapBandedMatrix(_storage, _precision, _spill_directory);
+			} else {
+				tables[t] = _precision == TablePrecision.FLOAT ? new FloatBandedMatrix() : new BandedMatrix();
+			}
+		}
+		_Alpha_stem = tables[0];
+		_Alpha_stemend = tables[1];
+		_Alpha_multi = tables[2];
+		_Alpha_multibif = tables[3];
+		_Alpha_multi1 = tables[4];
+		_Alpha_multi2 = tables[5];
+		_Beta_stem = tables[6];
+		_Beta_stemend = tables[7];
+		_Beta_multi = tables[8];
+		_Beta_multibif = tables[9];
+		_Beta_multi1 = tables[10];
+		_Beta_multi2 = tables[11];
+		_computed_engine = Engine.LOG;
+	}
+
+	/**
+	 * Computes the cells of each span of the inside tables, and in reverse order of
+	 * span of the outside tables, in parallel on <code>pool</code>. Results are identical
+	 * to the serial computation. The tasks always run on <code>pool</code>, also if the
+	 * instance folds on a worker of another pool, e.g. of the executor of a
+	 * <code>CapRPool</code>.
+	 * @param pool the pool to run on, or null to fold serially (default)
+	 * @param grain_size the minimal number of cells per task
+	 */
+	public void setParallelism(ForkJoinPool pool, int grain_size) {
+		if (grain_size < 1) {
+			throw new IllegalArgumentException("The grain size (" + grain_size + ") must be positive");
+		}
+		_pool = pool;
+		_grain_size = grain_size;
+	}
+
+	public ForkJoinPool getPool() {
+		return _pool;
+	}
+
+	public int getGrainSize() {
+		return _grain_size;
+	}
+
+	/**
+	 * Reports the phase timings and statistics of all subsequent folds of
+	 * <code>ComputeStructuralProfile</code> and <code>ComputeTemperatureSweep</code>, and
+	 * the timings of all profiles, to <code>listener</code>. While a listener is attached,
+	 * the <code>logsumexp</code> evaluations of the inside and outside recursions are
+	 * counted, those of the profile stages are not, and the tables are scanned once per
+	 * fold to count their cells, which slows down folds by a few percent.
+	 * @param listener the listener, e.g. a <code>CapRMetrics</code> registry, or null to stop reporting (default)
+	 */
+	public void setFoldListener(FoldListener listener) {
+		_listener = listener;
+	}
+
+	public FoldListener getFoldListener() {
+		return _listener;
+	}
+
+	/**
+	 * @return the number of bytes held by the tables of this instance, which only ever grow
+	 * to the largest sequence and span folded so far
+	 */
+	public long getWorkspaceBytes() {
+		long bytes = 8L * (_Alpha_outer.length + _Beta_outer.length) + _int_sequence.length + _pair_type.length;
+		for (BandedMatrix table : Tables()) {
+			bytes += table.getAllocatedBytes();
+		}
+		return bytes;
 	}
 
 	public void ComputeStructuralProfile(byte[] sequence, int maximal_span) {
+		FoldEvent event = FoldEvent.FACTORY.get();
+		if (event != null) {
+			event.begin();
+		}
+		
 		_maximal_span = maximal_span;
 		_seq_length = 0;
 		
 		Clear();
+		long start = System.nanoTime();
 		Initiallize(sequence);
+		Record(FoldPhase.INITIALIZE, start);
+		Report(FoldPhase.INITIALIZE);
+		Fold();
+		
+		if (event != null) {
+			event.commit(this);
+		}
+	}
+
+	/**
+	 * Frees all tables, which otherwise keep the size of the largest fold of this instance.
+	 * Afterwards, the instance is in the state of a new one.
+	 */
+	public void ReleaseWorkspace() {
+		
+		Clear();
+		for (BandedMatrix table : Tables()) {
+			table.release();
+		}
+		_Alpha_outer = new double[0];
+		_Beta_outer = new double[0];
+		_int_sequence = new byte[0];
+		_pair_type = new byte[0];
+		_computed_engine = Engine.LOG;
+		_linear = null;
+		
+	}
+
+	/**
+	 * Folds <code>sequence</code> at each of the given temperatures and returns the profiles
+	 * in the same order. The sequence is encoded, and its pair types are determined, once
+	 * for all temperatures, and all folds reuse the tables of this instance. Afterwards, the
+	 * instance holds the fold at, and keeps the energy model of, the last temperature.
+	 * The temperatures rescale the free energies at 37 degrees Celsius only, see
+	 * <code>EnergyModel</code>, so the profiles are not physical melting profiles.
+	 * @param sequence
+	 * @param maximal_span
+	 * @param temperatures in degrees Celsius
+	 * @return the profiles in the layout of <code>getStructuralProfile</code>
+	 */
+	public double[][] ComputeTemperatureSweep(byte[] sequence, int maximal_span, double... temperatures) {
+		_maximal_span = maximal_span;
+		_seq_length = 0;
+		
+		Clear();
+		long start = System.nanoTime();
+		Initiallize(sequence);
+		Record(FoldPhase.INITIALIZE, start);
+		Report(FoldPhase.INITIALIZE);
+		
+		double[][] profiles = new double[temperatures.length][];
+		for (int t = 0; t < temperatures.length; t++) {
+			setTemperature(temperatures[t]);
+			Fold();
+			profiles[t] = getStructuralProfile();
+		}
+		return profiles;
+	}
+
+	/**
+	 * Runs the inside and outside recursions of the initialized sequence with the
+	 * selected engine
+	 */
+	private void Fold() {
+		
+		_phase_nanos[FoldPhase.INSIDE.ordinal()] = 0;
+		_phase_nanos[FoldPhase.OUTSIDE.ordinal()] = 0;
+		_logsumexp_count = 0;
+		_logsumexp_calls.reset();
+		_count_logsumexp = _listener != null;
+		
+		// the scaled weights exceed the range of a float
+		if (_engine == Engine.SCALED_LINEAR && _precision == TablePrecision.DOUBLE) {
+			
+			if (_linear == null) {
+				_linear = new ScaledLinearEngine(this);
+			}
+			
+			ClearTables(0.0);
+			if (_linear.compute()) {
+				_computed_engine = Engine.SCALED_LINEAR;
+				ReportFold();
+				return;
+			}
+			
+		}
+		
+		// either requested, or the linear domain is not available: float tables, or no scaling factor found
+		_computed_engine = Engine.LOG;
+		ClearTables((double) -EnergyPar.INF);
+		_Alpha_outer[0] = 0.0;
+		_Beta_outer[_seq_length] = 0.0;
+		long start = System.nanoTime();
 		CalcInsideVariable();
+		Record(FoldPhase.INSIDE, start);
+		start = System.nanoTime();
 		CalcOutsideVariable();
+		Record(FoldPhase.OUTSIDE, start);
+		ReportFold();
 		
 	}
 
-	private void set_energy_parameters() {
-		MLclosing = -EnergyPar.ML_closing37 * 10 / EnergyPar.kT;
-		MLintern = -EnergyPar.ML_intern37 * 10. / EnergyPar.kT;
-		MLbase = -EnergyPar.ML_BASE37 * 10. / EnergyPar.kT;
-		TermAU = -EnergyPar.TerminalAU * 10 / EnergyPar.kT;
+	/**
+	 * Adds the time elapsed since <code>start</code> to the duration of <code>phase</code>
+	 */
+	void Record(FoldPhase phase, long start) {
+		_phase_nanos[phase.ordinal()] += System.nanoTime() - start;
+	}
 
-		for (int i = 0; i <= 30; i++) {
-			hairpin[i] = -EnergyPar.hairpin37[i] * 10. / EnergyPar.kT;
-			bulge[i] = -EnergyPar.bulge37[i] * 10. / EnergyPar.kT;
-			internal[i] = -EnergyPar.internal_loop37[i] * 10. / EnergyPar.kT;
+	/**
+	 * Hands the duration of <code>phase</code> to the listener, if any, and resets it
+	 */
+	private void Report(FoldPhase phase) {
+		if (_listener != null) {
+			_listener.onPhase(phase, _seq_length, _phase_nanos[phase.ordinal()]);
 		}
+		_phase_nanos[phase.ordinal()] = 0;
+	}
 
-		for (int i = 0; i < 7; i++) {
-			for (int j = 0; j < 5; j++) {
-				for (int k = 0; k < 5; k++) {
-					mismatchI[i][j][k] = -EnergyPar.mismatchI37[i][j][k] * 10.0 / EnergyPar.kT;
-					mismatchH[i][j][k] = -EnergyPar.mismatchH37[i][j][k] * 10.0 / EnergyPar.kT;
+	/**
+	 * Hands the phase timings and statistics of the completed fold to the listener, if any
+	 */
+	private void ReportFold() {
+		_count_logsumexp = false;
+		if (_listener == null) {
+			return;
+		}
+		
+		Report(FoldPhase.INSIDE);
+		Report(FoldPhase.OUTSIDE);
+		
+		// the cells computed by the recursions, and those left at the value of an impossible state
+		double empty = _computed_engine == Engine.LOG ? (double) -EnergyPar.INF : 0.0;
+		BandedMatrix[] tables = Tables();
+		long cells = 0;
+		long empty_cells = 0;
+		for (int j = EnergyPar.TURN + 1; j <= _seq_length; j++) {
+			for (int i = Math.max(0, j - _maximal_span - 1); i <= j - EnergyPar.TURN; i++) {
+				for (BandedMatrix table : tables) {
+					if (table.get(i, j - i) == empty) {
+						empty_cells++;
+					}
 				}
+				cells += tables.length;
 			}
+		}
+		
+		_listener.onFold(new FoldStatistics(_seq_length, _maximal_span, _computed_engine, cells, empty_cells,
+				_logsumexp_count + _logsumexp_calls.sum(), getWorkspaceBytes()));
+	}
 
-			for (int j = 0; j < 7; j++) {
-				stack[i][j] = -EnergyPar.stack37[i][j] * 10. / EnergyPar.kT;
-			}
+	/**
+	 * Starts a co-transcriptional fold of an initially empty sequence, which is then grown
+	 * by <code>ExtendTranscript</code>. Always uses the log-space engine.
+	 * @param maximal_span
+	 */
+	public void BeginTranscript(int maximal_span) {
+		_maximal_span = maximal_span;
+		
+		Clear();
+		if (_int_sequence.length < 1) {
+			_int_sequence = new byte[1];
+		}
+		_int_sequence[0] = 0;
+		_computed_engine = Engine.LOG;
+		
+		ReshapeTables();
+		ClearTables((double) -EnergyPar.INF);
+		if (_Alpha_outer.length < 1) {
+			_Alpha_outer = new double[1];
+			_Beta_outer = new double[1];
+		}
+		_Alpha_outer[0] = 0.0;
+	}
 
-			for (int j = 0; j <= 4; j++) {
-				dangle5[i][j] = -EnergyPar.dangle5_37[i][j] * 10. / EnergyPar.kT;
-				dangle3[i][j] = -EnergyPar.dangle3_37[i][j] * 10. / EnergyPar.kT;
-				if (i > 2) {
-					dangle3[i][j] += TermAU;
-				}
+	/**
+	 * Appends <code>nucleotides</code> to the sequence of the current co-transcriptional fold,
+	 * or of the last log-space fold of <code>ComputeStructuralProfile</code>, after which <code>getStructuralProfile</code> returns the profile of the extended sequence.
+	 *
+	 * Inside variables only depend on the subsequence they cover, so only the cells ending at the
+	 * appended positions are computed, together with those ending at the previous last position,
+	 * whose dangling end energies change once a successor exists. The outside variables are
+	 * recomputed as a whole. Appending a single nucleotide hence costs a column of the inside
+	 * pass plus one outside pass instead of a complete fold.
+	 * @param nucleotides
+	 */
+	public void ExtendTranscript(byte[] nucleotides) {
+		if (_int_sequence.length == 0) {
+			throw new IllegalStateException("BeginTranscript has to be called before extending a transcript");
+		}
+		if (_computed_engine != Engine.LOG) {
+			throw new IllegalStateException("Only folds computed with Engine.LOG can be extended");
+		}
+		
+		int previous = _seq_length;
+		_seq_length += nucleotides.length;
+		if (_int_sequence.length < _seq_length + 1) {
+			_int_sequence = Arrays.copyOf(_int_sequence, Math.max(_seq_length + 1, 2 * _int_sequence.length));
+		}
+		for (int x = 0; x < nucleotides.length; x++) {
+			_int_sequence[previous + 1 + x] = Encode(nucleotides[x]);
+		}
+		
+		if (_Alpha_outer.length < _seq_length + 1) {
+			int capacity = Math.max(_seq_length + 1, 2 * _Alpha_outer.length);
+			_Alpha_outer = Arrays.copyOf(_Alpha_outer, capacity);
+			_Beta_outer = new double[capacity];
+		}
+		ReshapeTables();
+		CalcPairTypes(previous + 1, _seq_length);
+		
+		// inside cells ending at the previous and the appended positions
+		for (int j = Math.max(EnergyPar.TURN + 1, previous); j <= _seq_length; j++) {
+			for (int i = j - EnergyPar.TURN; i >= Math.max(0, j - _maximal_span - 1); i--) {
+				CalcInsideCell(i, j);
 			}
 		}
+		for (int i = Math.max(1, previous); i <= _seq_length; i++) {
+			CalcAlphaOuter(i);
+		}
+		
+		ClearOutsideTables((double) -EnergyPar.INF);
+		_Beta_outer[_seq_length] = 0.0;
+		CalcOutsideVariable();
+	}
 
-		for (int i = 0; i <= 7; i++) {
-			for (int j = 0; j <= 7; j++) {
-				for (int k = 0; k < 5; k++) {
-					for (int l = 0; l < 5; l++) {
-						int11[i][j][k][l] = -InitLoops.int11_37[i][j][k][l] * 10. / EnergyPar.kT;
-						for (int m = 0; m < 5; m++) {
-							int21[i][j][k][l][m] = -InitLoops.int21_37[i][j][k][l][m] * 10. / EnergyPar.kT;
-							for (int n = 0; n < 5; n++) {
-								int22[i][j][k][l][m][n] = -InitLoops.int22_37[i][j][k][l][m][n] * 10. / EnergyPar.kT;
-							}
-						}
+	/**
+	 * Folds every prefix of <code>sequence</code> of at least <code>min_length</code> nucleotides
+	 * and hands its profile to <code>callback</code>, in order of increasing length. The index
+	 * passed to the callback is the length of the prefix minus one. Afterwards, the instance
+	 * holds the fold of the complete sequence.
+	 * @param sequence
+	 * @param maximal_span
+	 * @param min_length the length of the shortest prefix to report
+	 * @param callback
+	 */
+	public void ComputePrefixProfiles(byte[] sequence, int maximal_span, int min_length, ProfileCallback callback) {
+		BeginTranscript(maximal_span);
+		
+		int length = Math.max(1, Math.min(min_length, sequence.length));
+		if (sequence.length > 0) {
+			ExtendTranscript(Arrays.copyOf(sequence, length));
+			callback.accept(length - 1, Arrays.copyOf(sequence, length), getStructuralProfile());
+		}
+		for (int x = length; x < sequence.length; x++) {
+			ExtendTranscript(new byte[] { sequence[x] });
+			callback.accept(x, Arrays.copyOf(sequence, x + 1), getStructuralProfile());
+		}
+	}
+
+	/**
+	 * Computes the effect of all single nucleotide mutations at the positions <code>[from,to)</code>
+	 * of <code>sequence</code> on its structural profile. Every position is mutated to each of
+	 * the other three nucleotides <code>A,C,G,U</code>, and the difference of the mutant's profile
+	 * to the wild type profile is handed to <code>callback</code>. The scan always uses
+	 * <code>Engine.LOG</code>, regardless of <code>setEngine</code>, since it updates the
+	 * log-space tables of the wild type cell by cell.
+	 *
+	 * Inside variables of a subsequence <code>(i,j]</code> depend on the nucleotides <code>i</code>
+	 * to <code>j+1</code> only. For a mutant, only the inside cells covering the mutated position
+	 * are recomputed, all other cells are reused from the wild type fold. Outside variables
+	 * cannot be reused in the same way: every outside cell, also of subsequences far from the
+	 * mutated position, includes the exterior loop partition functions <code>_Alpha_outer</code>
+	 * and <code>_Beta_outer</code> of its enclosing stems, which change along the whole sequence.
+	 * Every mutant therefore runs a complete outside pass, which dominates its cost, so a
+	 * mutant costs about three quarters of a fold rather than a small fraction of it.
+	 *
+	 * Afterwards, the instance holds the inside tables of the wild type. Its outside tables are
+	 * only recomputed should <code>getStructuralProfile</code> be called again.
+	 * @param sequence the wild type
+	 * @param maximal_span
+	 * @param from the first position to mutate, zero-based
+	 * @param to the position after the last one to mutate
+	 * @param callback
+	 * @return the profile of the wild type
+	 */
+	public double[] ComputeMutationScan(byte[] sequence, int maximal_span, int from, int to, MutationCallback callback) {
+		_maximal_span = maximal_span;
+		_seq_length = 0;
+		
+		Clear();
+		Initiallize(sequence);
+		_computed_engine = Engine.LOG;
+		ClearTables((double) -EnergyPar.INF);
+		CalcInsideVariable();
+		CalcOutsideVariable();
+		
+		double[] wild_type = getStructuralProfile();
+		
+		BandedMatrix[] inside = { _Alpha_stem, _Alpha_stemend, _Alpha_multi, _Alpha_multibif, _Alpha_multi1, _Alpha_multi2 };
+		int cols = _maximal_span + 2;
+		int band = (_maximal_span + 3) * cols;
+		double[] saved_rows = new double[inside.length * band];
+		double[] saved_outer = Arrays.copyOf(_Alpha_outer, _seq_length + 1);
+		
+		for (int x = Math.max(0, from); x < Math.min(to, _seq_length); x++) {
+			
+			int m = x + 1;
+			int original = _int_sequence[m];
+			
+			// the rows of all inside cells covering m
+			int first_row = Math.max(0, m - _maximal_span - 2);
+			for (int t = 0; t < inside.length; t++) {
+				inside[t].copyRowsTo(first_row, m + 1, saved_rows, t * band);
+			}
+			
+			for (int code = 1; code <= 4; code++) {
+				if (code == original) {
+					continue;
+				}
+				
+				_int_sequence[m] = (byte) code;
+				CalcPairTypes(m, m);
+				
+				// inside cells (i,j) with i <= m <= j+1, in the order of CalcInsideVariable
+				for (int j = Math.max(EnergyPar.TURN + 1, m - 1); j <= Math.min(_seq_length, m + _maximal_span + 1); j++) {
+					for (int i = Math.min(m, j - EnergyPar.TURN); i >= Math.max(0, j - _maximal_span - 1); i--) {
+						CalcInsideCell(i, j);
 					}
 				}
+				for (int i = Math.max(1, m - 1); i <= _seq_length; i++) {
+					CalcAlphaOuter(i);
+				}
+				
+				ClearOutsideTables((double) -EnergyPar.INF);
+				_Beta_outer[_seq_length] = 0.0;
+				CalcOutsideVariable();
+				
+				double[] delta = getStructuralProfile();
+				for (int k = 0; k < delta.length; k++) {
+					delta[k] -= wild_type[k];
+				}
+				callback.accept(x, NUCLEOTIDES[code], delta);
+				
+				// back to the wild type
+				for (int t = 0; t < inside.length; t++) {
+					inside[t].copyRowsFrom(first_row, m + 1, saved_rows, t * band);
+				}
+				System.arraycopy(saved_outer, 0, _Alpha_outer, 0, _seq_length + 1);
 			}
+			
+			_int_sequence[m] = (byte) original;
+			CalcPairTypes(m, m);
+			_outside_stale = true;
 		}
+		
+		return wild_type;
+	}
 
-		for (int i = 0; i <= EnergyPar.MAXLOOP; i++) {
-			ninio[i] = -Math.min(EnergyPar.MAX_NINIO, i * EnergyPar.F_ninio37) * 10 / EnergyPar.kT;
-		}
+	/**
+	 * Computes the effect of all single nucleotide mutations of <code>sequence</code>
+	 * @see #ComputeMutationScan(byte[], int, int, int, MutationCallback)
+	 */
+	public double[] ComputeMutationScan(byte[] sequence, int maximal_span, MutationCallback callback) {
+		return ComputeMutationScan(sequence, maximal_span, 0, sequence.length, callback);
 	}
 
 	private void Initiallize(byte[] sequence) {
 		
 		_seq_length = sequence.length;
-		_int_sequence.ensureCapacity(_seq_length + 1);
+		if (_int_sequence.length < _seq_length + 1) {
+			_int_sequence = new byte[_seq_length + 1];
+		}
+		_int_sequence[0] = 0;
 		
-		for (int x = 0; x < _seq_length + 1; x++) {
-			_int_sequence.add(0);
-			
-			_Alpha_outer.add(0.0);
-			_Beta_outer.add(0.0);
+		// all other cells of the outer tables are overwritten by the recursions
+		if (_Alpha_outer.length < _seq_length + 1) {
+			_Alpha_outer = new double[_seq_length + 1];
+			_Beta_outer = new double[_seq_length + 1];
 		}
+		_Alpha_outer[0] = 0.0;
+		_Beta_outer[_seq_length] = 0.0;
 		
 		for (int i = 0; i < _seq_length; i++) {
-			if (sequence[i] == 'A' || sequence[i] == 'a') {
-				_int_sequence.set(i + 1, 1);
-			} else if (sequence[i] == 'C' || sequence[i] == 'c') {
-				_int_sequence.set(i + 1, 2);
-			} else if (sequence[i] == 'G' || sequence[i] == 'g') {
-				_int_sequence.set(i + 1, 3);
-			} else if (sequence[i] == 'T' || sequence[i] == 't' || sequence[i] == 'U' || sequence[i] == 'u') {
-				_int_sequence.set(i + 1, 4);
-			} else {
-				_int_sequence.set(i + 1, 0);
-			}
+			_int_sequence[i + 1] = Encode(sequence[i]);
+		}
+		
+		
+		ReshapeTables();
+		CalcPairTypes(0, _seq_length);
+		
+	}
+
+	/**
+	 * Sets the dimension of all inside and outside tables to the current sequence length
+	 * and maximal span. Rows of the inside tables are kept, so that a fold can be extended.
+	 */
+	private void ReshapeTables() {
+		
+		_Alpha_stem.reshape(_seq_length + 1, _maximal_span + 2);
+		_Alpha_stemend.reshape(_seq_length + 1, _maximal_span + 2);
+		_Alpha_multi.reshape(_seq_length + 1, _maximal_span + 2);
+		_Alpha_multibif.reshape(_seq_length + 1, _maximal_span + 2);
+		_Alpha_multi1.reshape(_seq_length + 1, _maximal_span + 2);
+		_Alpha_multi2.reshape(_seq_length + 1, _maximal_span + 2);
+
+		_Beta_stem.reshape(_seq_length + 1, _maximal_span + 2);
+		_Beta_stemend.reshape(_seq_length + 1, _maximal_span + 2);
+		_Beta_multi.reshape(_seq_length + 1, _maximal_span + 2);
+		_Beta_multibif.reshape(_seq_length + 1, _maximal_span + 2);
+		_Beta_multi1.reshape(_seq_length + 1, _maximal_span + 2);
+		_Beta_multi2.reshape(_seq_length + 1, _maximal_span + 2);
+		
+		// the pair types of an extended fold are kept as well. Off-heap tables may hold more
+		// cells than an array, so their pair types are looked up from the sequence instead.
+		_pair_cols = _storage == TableStorage.HEAP ? _maximal_span + 3 : 0;
+		if (_pair_type.length < (_seq_length + 1) * _pair_cols) {
+			_pair_type = Arrays.copyOf(_pair_type, (_seq_length + 1) * _pair_cols);
 		}
 		
+	}
+
+	/**
+	 * Looks up the pair types of all nucleotides <code>a &lt;= b</code> within the band with
+	 * <code>a &lt;= last</code> and <code>b &gt;= first</code>, i.e. of all pairs involving a
+	 * position of <code>[first,last]</code> or spanning it.
+	 */
+	private void CalcPairTypes(int first, int last) {
 		
-		_Alpha_stem.reshape(_seq_length + 1, _maximal_span + 2).clear((double) -EnergyPar.INF);
-		_Alpha_stemend.reshape(_seq_length + 1, _maximal_span + 2).clear((double) -EnergyPar.INF);
-		_Alpha_multi.reshape(_seq_length + 1, _maximal_span + 2).clear((double) -EnergyPar.INF);
-		_Alpha_multibif.reshape(_seq_length + 1, _maximal_span + 2).clear((double) -EnergyPar.INF);
-		_Alpha_multi1.reshape(_seq_length + 1, _maximal_span + 2).clear((double) -EnergyPar.INF);
-		_Alpha_multi2.reshape(_seq_length + 1, _maximal_span + 2).clear((double) -EnergyPar.INF);
+		if (_pair_cols == 0) {
+			return;
+		}
+		for (int a = Math.max(0, first - _pair_cols + 1); a <= last; a++) {
+			int row = a * _pair_cols - a;
+			for (int b = Math.max(a, first); b <= Math.min(_seq_length, a + _pair_cols - 1); b++) {
+				_pair_type[row + b] = (byte) EnergyPar.BP_pair[_int_sequence[a]][_int_sequence[b]];
+			}
+		}
+		
+	}
+
+	/**
+	 * @return the pair type of the nucleotides <code>a &lt;= b &lt;= a + _maximal_span + 2</code>
+	 */
+	int PairType(int a, int b) {
+		if (_pair_cols == 0) {
+			return EnergyPar.BP_pair[_int_sequence[a]][_int_sequence[b]];
+		}
+		return _pair_type[a * _pair_cols + b - a];
+	}
 
-		_Beta_stem.reshape(_seq_length + 1, _maximal_span + 2).clear((double) -EnergyPar.INF);
-		_Beta_stemend.reshape(_seq_length + 1, _maximal_span + 2).clear((double) -EnergyPar.INF);
-		_Beta_multi.reshape(_seq_length + 1, _maximal_span + 2).clear((double) -EnergyPar.INF);
-		_Beta_multibif.reshape(_seq_length + 1, _maximal_span + 2).clear((double) -EnergyPar.INF);
-		_Beta_multi1.reshape(_seq_length + 1, _maximal_span + 2).clear((double) -EnergyPar.INF);
-		_Beta_multi2.reshape(_seq_length + 1, _maximal_span + 2).clear((double) -EnergyPar.INF);
+	/**
+	 * Resets all inside and outside tables to <code>empty</code>, the value
+	 * representing an impossible state in the domain of the current engine.
+	 * @param empty
+	 */
+	void ClearTables(double empty) {
+		
+		_Alpha_stem.clear(empty);
+		_Alpha_stemend.clear(empty);
+		_Alpha_multi.clear(empty);
+		_Alpha_multibif.clear(empty);
+		_Alpha_multi1.clear(empty);
+		_Alpha_multi2.clear(empty);
+
+		ClearOutsideTables(empty);
 		
 	}
 
-	private void CalcInsideVariable() {
-		for (int j = EnergyPar.TURN + 1; j <= _seq_length; j++) {
-			for (int i = j - EnergyPar.TURN; i >= Math.max(0, j - _maximal_span - 1); i--) {
-				// Alpha_stem
-				int type = EnergyPar.BP_pair[_int_sequence.get(i + 1)][_int_sequence.get(j)];
-				int type2 = EnergyPar.BP_pair[_int_sequence.get(i + 2)][_int_sequence.get(j - 1)];
+	/**
+	 * Resets the outside tables only, keeping the inside tables of the current fold
+	 */
+	void ClearOutsideTables(double empty) {
+		
+		_Beta_stem.clear(empty);
+		_Beta_stemend.clear(empty);
+		_Beta_multi.clear(empty);
+		_Beta_multibif.clear(empty);
+		_Beta_multi1.clear(empty);
+		_Beta_multi2.clear(empty);
+		
+	}
 
-				double temp = 0;
-				boolean flag = false;
-				if (type != 0) {
-					type2 = EnergyPar.rtype[type2];
-					if (_Alpha_stem.get(i + 1, j - i - 2) != -EnergyPar.INF) {
-						// Stem¨Stem
-						if (type2 != 0) {
-							temp = _Alpha_stem.get(i + 1,j - i - 2)
-									+ LoopEnergy(type, type2, i + 1, j, i + 2, j - 1);
-						}
-						flag = true;
-					}
+	/**
+	 * @return all inside and outside tables
+	 */
+	private BandedMatrix[] Tables() {
+		return new BandedMatrix[] { _Alpha_stem, _Alpha_stemend, _Alpha_multi, _Alpha_multibif, _Alpha_multi1, _Alpha_multi2,
+				_Beta_stem, _Beta_stemend, _Beta_multi, _Beta_multibif, _Beta_multi1, _Beta_multi2 };
+	}
 
-					if (_Alpha_stemend.get(i + 1,j - i - 2) != -EnergyPar.INF) {
-						// Stem¨StemEnd
-						temp = (flag == true) ? logsumexp(temp, _Alpha_stemend.get(i + 1,j - i - 2))
-								: _Alpha_stemend.get(i + 1,j - i - 2);
-						flag = true;
-					}
+	/**
+	 * Ensures all rows of the inside and outside tables are allocated for the current
+	 * fold, which is required before the tables are written concurrently.
+	 */
+	void MaterializeTables() {
+		
+		_Alpha_stem.materialize();
+		_Alpha_stemend.materialize();
+		_Alpha_multi.materialize();
+		_Alpha_multibif.materialize();
+		_Alpha_multi1.materialize();
+		_Alpha_multi2.materialize();
+
+		_Beta_stem.materialize();
+		_Beta_stemend.materialize();
+		_Beta_multi.materialize();
+		_Beta_multibif.materialize();
+		_Beta_multi1.materialize();
+		_Beta_multi2.materialize();
+		
+	}
 
-					_Alpha_stem.set(i, j - i, (flag == false) ? -EnergyPar.INF : temp);
-				} else {
-					_Alpha_stem.set(i, j - i, (double) -EnergyPar.INF);
+	void CalcInsideVariable() {
+		if (_pool == null) {
+			for (int j = EnergyPar.TURN + 1; j <= _seq_length; j++) {
+				for (int i = j - EnergyPar.TURN; i >= Math.max(0, j - _maximal_span - 1); i--) {
+					CalcInsideCell(i, j);
 				}
+			}
+		} else {
+			// all cells of a span depend on shorter spans only
+			MaterializeTables();
+			for (int d = EnergyPar.TURN; d <= Math.min(_seq_length, _maximal_span + 1); d++) {
+				final int span = d;
+				RangeTask.run(_pool, Math.max(0, EnergyPar.TURN + 1 - span), _seq_length - span, _grain_size,
+						i -> CalcInsideCell(i, i + span));
+			}
+		}
 
-				// Alpha_multiBif
-				temp = 0;
-				flag = false;
-				for (int k = i + 1; k <= j - 1; k++) {
-					if (_Alpha_multi1.get(i,k - i) != -EnergyPar.INF
-							&& _Alpha_multi2.get(k,j - k) != -EnergyPar.INF) {
-						temp = (flag == false) ? _Alpha_multi1.get(i,k - i) + _Alpha_multi2.get(k,j - k)
-								: logsumexp(temp, _Alpha_multi1.get(i,k - i) + _Alpha_multi2.get(k,j - k));
-						flag = true;
-					}
-				}
-				_Alpha_multibif.set(i, j - i, (flag == false) ? -EnergyPar.INF : temp);
+		// Alpha_Outer
+		for (int i = 1; i <= _seq_length; i++) {
+			CalcAlphaOuter(i);
+		}
+	}
 
-				// Alpha_multi2
-				temp = 0;
-				flag = false;
-				if (type != 0) {
-					if (_Alpha_stem.get(i,j - i) != -EnergyPar.INF) {
-						temp = _Alpha_stem.get(i,j - i) + MLintern + CalcDangleEnergy(type, i, j);
-						flag = true;
-					}
-				}
-				if (_Alpha_multi2.get(i,j - i - 1) != -EnergyPar.INF) {
-					_Alpha_multi2.set(i, j - i, _Alpha_multi2.get(i,j - i - 1) + MLbase);
-					if (flag == true) {
-						_Alpha_multi2.set(i, j - i, logsumexp(temp, _Alpha_multi2.get(i,j - i)));
-					}
-				} else {
-					_Alpha_multi2.set(i, j - i, (flag == false) ? -EnergyPar.INF : temp);
+	private void CalcAlphaOuter(int i) {
+		double temp = _Alpha_outer[i - 1];
+		for (int p = Math.max(0, i - _maximal_span - 1); p < i; p++) {
+			if (_Alpha_stem.get(p,i - p) != -EnergyPar.INF) {
+				int type = PairType(p + 1, i);
+				double ao = _Alpha_stem.get(p,i - p) + CalcDangleEnergy(type, p, i);
+				temp = logsumexp(temp, ao + _Alpha_outer[p]);
+			}
+		}
+		_Alpha_outer[i] = temp;
+	}
+
+	/**
+	 * Computes all inside variables of the subsequence <code>(i,j]</code>. Requires all
+	 * subsequences of shorter span to be computed.
+	 */
+	private void CalcInsideCell(int i, int j) {
+		// Alpha_stem
+		int type = PairType(i + 1, j);
+		int type2 = PairType(i + 2, j - 1);
+
+		double temp = 0;
+		boolean flag = false;
+		if (type != 0) {
+			type2 = EnergyPar.rtype[type2];
+			if (_Alpha_stem.get(i + 1, j - i - 2) != -EnergyPar.INF) {
+				// Stem¨Stem
+				if (type2 != 0) {
+					temp = _Alpha_stem.get(i + 1,j - i - 2)
+							+ LoopEnergy(type, type2, i + 1, j, i + 2, j - 1);
 				}
+				flag = true;
+			}
+
+			if (_Alpha_stemend.get(i + 1,j - i - 2) != -EnergyPar.INF) {
+				// Stem¨StemEnd
+				temp = (flag == true) ? logsumexp(temp, _Alpha_stemend.get(i + 1,j - i - 2))
+						: _Alpha_stemend.get(i + 1,j - i - 2);
+				flag = true;
+			}
+
+			_Alpha_stem.set(i, j - i, (flag == false) ? -EnergyPar.INF : temp);
+		} else {
+			_Alpha_stem.set(i, j - i, (double) -EnergyPar.INF);
+		}
+
+		// Alpha_multiBif
+		temp = 0;
+		flag = false;
+		for (int k = i + 1; k <= j - 1; k++) {
+			if (_Alpha_multi1.get(i,k - i) != -EnergyPar.INF
+					&& _Alpha_multi2.get(k,j - k) != -EnergyPar.INF) {
+				temp = (flag == false) ? _Alpha_multi1.get(i,k - i) + _Alpha_multi2.get(k,j - k)
+						: logsumexp(temp, _Alpha_multi1.get(i,k - i) + _Alpha_multi2.get(k,j - k));
+				flag = true;
+			}
+		}
+		_Alpha_multibif.set(i, j - i, (flag == false) ? -EnergyPar.INF : temp);
+
+		// Alpha_multi2
+		temp = 0;
+		flag = false;
+		if (type != 0) {
+			if (_Alpha_stem.get(i,j - i) != -EnergyPar.INF) {
+				temp = _Alpha_stem.get(i,j - i) + MLintern + CalcDangleEnergy(type, i, j);
+				flag = true;
+			}
+		}
+		if (_Alpha_multi2.get(i,j - i - 1) != -EnergyPar.INF) {
+			_Alpha_multi2.set(i, j - i, _Alpha_multi2.get(i,j - i - 1) + MLbase);
+			if (flag == true) {
+				_Alpha_multi2.set(i, j - i, logsumexp(temp, _Alpha_multi2.get(i,j - i)));
+			}
+		} else {
+			_Alpha_multi2.set(i, j - i, (flag == false) ? -EnergyPar.INF : temp);
+		}
 
-				// Alpha_multi1
-				if (_Alpha_multi2.get(i,j - i) != -EnergyPar.INF
-						&& _Alpha_multibif.get(i,j - i) != -EnergyPar.INF) {
-					_Alpha_multi1.set(i, j - i,
-							logsumexp(_Alpha_multi2.get(i,j - i), _Alpha_multibif.get(i,j - i)));
-				} else if (_Alpha_multi2.get(i,j - i) == -EnergyPar.INF) {
-					_Alpha_multi1.set(i, j - i, _Alpha_multibif.get(i,j - i));
-				} else if (_Alpha_multibif.get(i,j - i) == -EnergyPar.INF) {
-					_Alpha_multi1.set(i, j - i, _Alpha_multi2.get(i,j - i));
-				} else {
-					_Alpha_multi1.set(i, j - i, (double) -EnergyPar.INF);
-				}
+		// Alpha_multi1
+		if (_Alpha_multi2.get(i,j - i) != -EnergyPar.INF
+				&& _Alpha_multibif.get(i,j - i) != -EnergyPar.INF) {
+			_Alpha_multi1.set(i, j - i,
+					logsumexp(_Alpha_multi2.get(i,j - i), _Alpha_multibif.get(i,j - i)));
+		} else if (_Alpha_multi2.get(i,j - i) == -EnergyPar.INF) {
+			_Alpha_multi1.set(i, j - i, _Alpha_multibif.get(i,j - i));
+		} else if (_Alpha_multibif.get(i,j - i) == -EnergyPar.INF) {
+			_Alpha_multi1.set(i, j - i, _Alpha_multi2.get(i,j - i));
+		} else {
+			_Alpha_multi1.set(i, j - i, (double) -EnergyPar.INF);
+		}
 
-				// Alpha_multi
-				flag = false;
-				if (_Alpha_multi.get(i + 1,j - i - 1) != -EnergyPar.INF) {
-					_Alpha_multi.set(i, j - i, _Alpha_multi.get(i + 1,j - i - 1) + MLbase);
-					flag = true;
-				}
+		// Alpha_multi
+		flag = false;
+		if (_Alpha_multi.get(i + 1,j - i - 1) != -EnergyPar.INF) {
+			_Alpha_multi.set(i, j - i, _Alpha_multi.get(i + 1,j - i - 1) + MLbase);
+			flag = true;
+		}
 
-				if (flag == true) {
-					if (_Alpha_multibif.get(i,j - i) != -EnergyPar.INF) {
-						_Alpha_multi.set(i, j - i,
-								logsumexp(_Alpha_multi.get(i,j - i), _Alpha_multibif.get(i,j - i)));
-					}
-				} else {
-					_Alpha_multi.set(i, j - i, _Alpha_multibif.get(i,j - i));
-				}
+		if (flag == true) {
+			if (_Alpha_multibif.get(i,j - i) != -EnergyPar.INF) {
+				_Alpha_multi.set(i, j - i,
+						logsumexp(_Alpha_multi.get(i,j - i), _Alpha_multibif.get(i,j - i)));
+			}
+		} else {
+			_Alpha_multi.set(i, j - i, _Alpha_multibif.get(i,j - i));
+		}
 
-				// Alpha_stemend
-				if (j != _seq_length) {
-					temp = 0;
-					type = EnergyPar.BP_pair[_int_sequence.get(i)][_int_sequence.get(j + 1)];
-					if (type != 0) {
-						// StemEnd¨sn
-						temp = HairpinEnergy(type, i, j + 1);
-
-						// StemEnd¨sm_Stem_sn
-						for (int p = i; p <= Math.min(i + EnergyPar.MAXLOOP, j - EnergyPar.TURN - 2); p++) {
-							int u1 = p - i;
-							for (int q = Math.max(p + EnergyPar.TURN + 2, j - EnergyPar.MAXLOOP + u1); q <= j; q++) {
-								type2 = EnergyPar.BP_pair[_int_sequence.get(p + 1)][_int_sequence.get(q)];
-								if (_Alpha_stem.get(p,q - p) != -EnergyPar.INF) {
-									if (type2 != 0 && !(p == i && q == j)) {
-										type2 = EnergyPar.rtype[type2];
-										temp = logsumexp(temp, _Alpha_stem.get(p,q - p)
-												+ LoopEnergy(type, type2, i, j + 1, p + 1, q));
-									}
-								}
+		// Alpha_stemend
+		if (j != _seq_length) {
+			temp = 0;
+			type = PairType(i, j + 1);
+			if (type != 0) {
+				// StemEnd¨sn
+				temp = HairpinEnergy(type, i, j + 1);
+
+				// StemEnd¨sm_Stem_sn
+				for (int p = i; p <= Math.min(i + EnergyPar.MAXLOOP, j - EnergyPar.TURN - 2); p++) {
+					int u1 = p - i;
+					for (int q = Math.max(p + EnergyPar.TURN + 2, j - EnergyPar.MAXLOOP + u1); q <= j; q++) {
+						type2 = PairType(p + 1, q);
+						if (_Alpha_stem.get(p,q - p) != -EnergyPar.INF) {
+							if (type2 != 0 && !(p == i && q == j)) {
+								type2 = EnergyPar.rtype[type2];
+								temp = logsumexp(temp, _Alpha_stem.get(p,q - p)
+										+ LoopEnergy(type, type2, i, j + 1, p + 1, q));
 							}
 						}
-
-						// StemEnd¨Multi
-						int tt = EnergyPar.rtype[type];
-						temp = logsumexp(temp, _Alpha_multi.get(i,j - i) + MLclosing + MLintern
-								+ dangle3[tt][_int_sequence.get(i + 1)] + dangle5[tt][_int_sequence.get(j)]);
-						_Alpha_stemend.set(i, j - i, temp);
-					} else {
-						_Alpha_stemend.set(i, j - i, (double) -EnergyPar.INF);
 					}
 				}
-			}
-		}
 
-		// Alpha_Outer
-		for (int i = 1; i <= _seq_length; i++) {
-			double temp = _Alpha_outer.get(i - 1);
-			for (int p = Math.max(0, i - _maximal_span - 1); p < i; p++) {
-				if (_Alpha_stem.get(p,i - p) != -EnergyPar.INF) {
-					int type = EnergyPar.BP_pair[_int_sequence.get(p + 1)][_int_sequence.get(i)];
-					double ao = _Alpha_stem.get(p,i - p) + CalcDangleEnergy(type, p, i);
-					temp = logsumexp(temp, ao + _Alpha_outer.get(p));
-				}
+				// StemEnd¨Multi
+				int tt = EnergyPar.rtype[type];
+				temp = logsumexp(temp, _Alpha_multi.get(i,j - i) + MLclosing + MLintern
+						+ dangle3[EnergyModel.dangleIndex(tt, _int_sequence[i + 1])]
+								+ dangle5[EnergyModel.dangleIndex(tt, _int_sequence[j])]);
+				_Alpha_stemend.set(i, j - i, temp);
+			} else {
+				_Alpha_stemend.set(i, j - i, (double) -EnergyPar.INF);
 			}
-			_Alpha_outer.set(i, temp);
 		}
 	}
 	
@@ -315,25 +1079,63 @@ public class CapR {
 	 */
 	public double[] getStructuralProfile(){ 
 		
-		// compute the required size of the array and allocate it
-		double[] profile = new double[_seq_length*5];
+		ProfileEvent event = ProfileEvent.FACTORY.get();
+		if (event != null) {
+			event.begin();
+		}
 		
-		// fill the array
-		double pf = _Alpha_outer.get(_seq_length);
-		if (pf >= -690 && pf <= 690) {
-			CalcBulgeAndInternalProbability2(profile, 1*_seq_length,2*_seq_length);
-		} else {
-			CalcLogSumBulgeAndInternalProbability2(profile, 1*_seq_length,2*_seq_length);
+		Arrays.fill(_phase_nanos, FoldPhase.HAIRPIN.ordinal(), _phase_nanos.length, 0);
+		if (_outside_stale) {
+			// the wild type of the last mutation scan
+			ClearOutsideTables((double) -EnergyPar.INF);
+			_Beta_outer[_seq_length] = 0.0;
+			CalcOutsideVariable();
 		}
-
-		CalcHairpinProbability2(profile, 0*_seq_length);
-
-		for (int i = 1; i <= _seq_length; i++) {
-			
-			profile[4*_seq_length + i -1] = CalcExteriorProbability(i);
-			profile[3*_seq_length + i -1] = CalcMultiProbability(i);
-			
+		double[] profile = _computed_engine == Engine.SCALED_LINEAR ? _linear.getStructuralProfile() : CalcLogProfile();
+		
+		Report(FoldPhase.HAIRPIN);
+		Report(FoldPhase.BULGE_AND_INTERNAL);
+		Report(FoldPhase.MULTI_AND_EXTERIOR);
+		
+		if (event != null) {
+			event.commit(this);
 		}
+		return profile;
+	}
+
+	/**
+	 * Computes the structural profile from the log-space tables
+	 */
+	private double[] CalcLogProfile(){
+		
+		// compute the required size of the array and allocate it
+		final double[] profile = new double[_seq_length*5];
+		
+		// fill the array, the contexts are independent of each other
+		final double pf = _Alpha_outer[_seq_length];
+		RangeTask.all(_pool,
+				() -> {
+					long start = System.nanoTime();
+					if (pf >= -690 && pf <= 690) {
+						CalcBulgeAndInternalProbability2(profile, 1*_seq_length,2*_seq_length);
+					} else {
+						CalcLogSumBulgeAndInternalProbability2(profile, 1*_seq_length,2*_seq_length);
+					}
+					Record(FoldPhase.BULGE_AND_INTERNAL, start);
+				},
+				() -> {
+					long start = System.nanoTime();
+					CalcHairpinProbability2(profile, 0*_seq_length);
+					Record(FoldPhase.HAIRPIN, start);
+				},
+				() -> {
+					long start = System.nanoTime();
+					RangeTask.run(_pool, 1, _seq_length, _grain_size, i -> {
+						profile[4*_seq_length + i -1] = CalcExteriorProbability(i);
+						profile[3*_seq_length + i -1] = CalcMultiProbability(i);
+					});
+					Record(FoldPhase.MULTI_AND_EXTERIOR, start);
+				});
 
 		// return it
 		return profile;
@@ -342,36 +1144,20 @@ public class CapR {
 
 	public void CalcStructuralProfile(String name) {
 		
+		double[] profile = getStructuralProfile();
+		
 		ArrayList<Double> bulge_probability = new ArrayList<Double>(_seq_length);
 		ArrayList<Double> internal_probability = new ArrayList<Double>(_seq_length);
 		ArrayList<Double> hairpin_probability = new ArrayList<Double>(_seq_length);
 		ArrayList<Double> multi_probability = new ArrayList<Double>(_seq_length);
 		ArrayList<Double> exterior_probability = new ArrayList<Double>(_seq_length);
-		ArrayList<Double> stem_probability = new ArrayList<Double>(_seq_length);
 
 		for (int x = 0; x < _seq_length; x++) {
-			bulge_probability.add(0.0);
-			internal_probability.add(0.0);
-			hairpin_probability.add(0.0);
-			multi_probability.add(0.0);
-			exterior_probability.add(0.0);
-			stem_probability.add(0.0);
-		}
-
-		double pf = _Alpha_outer.get(_seq_length);
-		if (pf >= -690 && pf <= 690) {
-			CalcBulgeAndInternalProbability(bulge_probability, internal_probability);
-		} else {
-			CalcLogSumBulgeAndInternalProbability(bulge_probability, internal_probability);
-		}
-
-		CalcHairpinProbability(hairpin_probability);
-
-		for (int i = 1; i <= _seq_length; i++) {
-			exterior_probability.set(i - 1, CalcExteriorProbability(i));
-			multi_probability.set(i - 1, CalcMultiProbability(i));
-			//stem_probability.set(i - 1, 1.0 - bulge_probability.get(i - 1) - exterior_probability.get(i - 1)
-			//		- hairpin_probability.get(i - 1) - internal_probability.get(i - 1) - multi_probability.get(i - 1));
+			hairpin_probability.add(profile[0*_seq_length + x]);
+			bulge_probability.add(profile[1*_seq_length + x]);
+			internal_probability.add(profile[2*_seq_length + x]);
+			multi_probability.add(profile[3*_seq_length + x]);
+			exterior_probability.add(profile[4*_seq_length + x]);
 		}
 
 		StringBuilder sb = new StringBuilder();
@@ -411,58 +1197,57 @@ public class CapR {
 	}
 
 	private double CalcExteriorProbability(int x) {
-		double probability = Math.exp(_Alpha_outer.get(x - 1) + _Beta_outer.get(x) - _Alpha_outer.get(_seq_length));
+		double probability = Math.exp(_Alpha_outer[x - 1] + _Beta_outer[x] - _Alpha_outer[_seq_length]);
 		return (probability);
 	}
 
-	private void CalcHairpinProbability2(double[] profile, int hairpin_offset) {
-		for (int x = 1; x <= _seq_length; x++) {
-			double temp = 0.0;
-			int type = 0;
-			boolean flag = false;
-			double h_energy = 0.0;
-
-			for (int i = Math.max(1, x - _maximal_span); i < x; i++) {
-				for (int j = x + 1; j <= Math.min(i + _maximal_span, _seq_length); j++) {
-					type = EnergyPar.BP_pair[_int_sequence.get(i)][_int_sequence.get(j)];
-					if (_Beta_stemend.get(i,j - i - 1) != -EnergyPar.INF) {
-						h_energy = _Beta_stemend.get(i,j - i - 1) + HairpinEnergy(type, i, j);
-						temp = flag == true ? logsumexp(temp, h_energy) : h_energy;
-						flag = true;
-					}
+	private void CalcHairpinProbability2(final double[] profile, final int hairpin_offset) {
+		final int first = 1;
+		final int last = _seq_length - 1;
+
+		if (_pool == null) {
+			AccumulateHairpin(first, last, profile, hairpin_offset);
+		} else {
+			// accumulate chunks of closing pairs into separate arrays, merged in a fixed order
+			final int size = RangeTask.chunkSize(first, last, _grain_size);
+			final double[][] partial = new double[RangeTask.chunks(first, last, size)][];
+			RangeTask.run(_pool, 0, partial.length - 1, 1, c -> {
+				partial[c] = new double[_seq_length];
+				AccumulateHairpin(first + c * size, Math.min(last, first + (c + 1) * size - 1), partial[c], 0);
+			});
+			for (double[] local : partial) {
+				for (int x = 0; x < _seq_length; x++) {
+					profile[hairpin_offset + x] += local[x];
 				}
 			}
+		}
 
-			if (flag == true) {
-				profile[hairpin_offset + x - 1] = Math.exp(temp - _Alpha_outer.get(_seq_length));
-			} else {
-				profile[hairpin_offset + x - 1] = 0.0;
-			}
+		// recover the per position probabilities from the difference array
+		double hairpin = 0.0;
+		for (int x = 0; x < _seq_length; x++) {
+			hairpin += profile[hairpin_offset + x];
+			profile[hairpin_offset + x] = hairpin > 0.0 ? hairpin : 0.0;
 		}
 	}
-	
-	private void CalcHairpinProbability(ArrayList<Double> hairpin_probability) {
-		for (int x = 1; x <= _seq_length; x++) {
-			double temp = 0.0;
-			int type = 0;
-			boolean flag = false;
-			double h_energy = 0.0;
-
-			for (int i = Math.max(1, x - _maximal_span); i < x; i++) {
-				for (int j = x + 1; j <= Math.min(i + _maximal_span, _seq_length); j++) {
-					type = EnergyPar.BP_pair[_int_sequence.get(i)][_int_sequence.get(j)];
-					if (_Beta_stemend.get(i,j - i - 1) != -EnergyPar.INF) {
-						h_energy = _Beta_stemend.get(i,j - i - 1) + HairpinEnergy(type, i, j);
-						temp = flag == true ? logsumexp(temp, h_energy) : h_energy;
-						flag = true;
-					}
-				}
-			}
 
-			if (flag == true) {
-				hairpin_probability.set(x - 1, Math.exp(temp - _Alpha_outer.get(_seq_length)));
-			} else {
-				hairpin_probability.set(x - 1, 0.0);
+	/**
+	 * Adds the probability of every hairpin closed by a base pair <code>(i,j)</code> with
+	 * <code>from &lt;= i &lt;= to</code> to a difference array, i.e. at position <code>i+1</code>
+	 * and, negated, at position <code>j</code>.
+	 */
+	private void AccumulateHairpin(int from, int to, double[] profile, int hairpin_offset) {
+		double pf = _Alpha_outer[_seq_length];
+		double temp = 0.0;
+		int type = 0;
+
+		for (int i = from; i <= to; i++) {
+			for (int j = i + 2; j <= Math.min(i + _maximal_span, _seq_length); j++) {
+				if (_Beta_stemend.get(i,j - i - 1) != -EnergyPar.INF) {
+					type = PairType(i, j);
+					temp = Math.exp(_Beta_stemend.get(i,j - i - 1) + HairpinEnergy(type, i, j) - pf);
+					profile[hairpin_offset + i] += temp;
+					profile[hairpin_offset + j - 1] -= temp;
+				}
 			}
 		}
 	}
@@ -490,171 +1275,89 @@ public class CapR {
 			}
 		}
 		if (flag == true) {
-			probability = Math.exp(temp - _Alpha_outer.get(_seq_length));
+			probability = Math.exp(temp - _Alpha_outer[_seq_length]);
 		}
 		return (probability);
 	}
 
 	
-	private void CalcBulgeAndInternalProbability2(double[] profile, int bulge_offset, int internal_offset) {
-		double temp = 0;
-		int type = 0;
-		int type2 = 0;
+	private void CalcBulgeAndInternalProbability2(final double[] profile, final int bulge_offset, final int internal_offset) {
+		AccumulateBulgeAndInternal(profile, bulge_offset, internal_offset, 0.0);
+		SumBulgeAndInternal(profile, bulge_offset, internal_offset, Math.exp(_Alpha_outer[_seq_length]));
+	}
 
-		for (int i = 1; i < _seq_length - EnergyPar.TURN - 2; i++) {
-			for (int j = i + EnergyPar.TURN + 3; j <= Math.min(i + _maximal_span, _seq_length); j++) {
-				type = EnergyPar.BP_pair[_int_sequence.get(i)][_int_sequence.get(j)];
-				if (type != 0) {
-					for (int p = i + 1; p <= Math.min(i + EnergyPar.MAXLOOP + 1, j - EnergyPar.TURN - 2); p++) {
-						int u1 = p - i - 1;
-						for (int q = Math.max(p + EnergyPar.TURN + 1, j - EnergyPar.MAXLOOP + u1 - 1); q < j; q++) {
-							type2 = EnergyPar.BP_pair[_int_sequence.get(p)][_int_sequence.get(q)];
-							if (type2 != 0 && !(p == i + 1 && q == j - 1)) {
-								type2 = EnergyPar.rtype[type2];
-								if (_Beta_stemend.get(i,j - i - 1) != -EnergyPar.INF
-										&& _Alpha_stem.get(p - 1,q - p + 1) != -EnergyPar.INF) {
-									temp = Math.exp(
-											_Beta_stemend.get(i,j - i - 1) + LoopEnergy(type, type2, i, j, p, q)
-													+ _Alpha_stem.get(p - 1,q - p + 1));
-
-									for (int k = i + 1; k <= p - 1; k++) {
-										if (j == q + 1) {
-											profile[bulge_offset + k - 1] += temp;
-										} else {
-											profile[internal_offset + k - 1] += temp;
-										}
-									}
+	private void CalcLogSumBulgeAndInternalProbability2(final double[] profile, final int bulge_offset, final int internal_offset) {
+		// exp(pf) is out of range, hence the log-space weights are shifted by pf before leaving the log domain
+		AccumulateBulgeAndInternal(profile, bulge_offset, internal_offset, _Alpha_outer[_seq_length]);
+		SumBulgeAndInternal(profile, bulge_offset, internal_offset, 1.0);
+	}
 
-									for (int k = q + 1; k <= j - 1; k++) {
-										if (i == p - 1) {
-											profile[bulge_offset + k - 1] += temp;
-										} else {
-											profile[internal_offset + k - 1] += temp;
-										}
-									}
-								}
-							}
-						}
-					}
+	/**
+	 * Records the weight <code>exp(w - shift)</code> of every bulge and internal loop as a
+	 * difference array, i.e. the weight is added at the first and subtracted after the last
+	 * unpaired position of each side of the loop.
+	 */
+	private void AccumulateBulgeAndInternal(final double[] profile, final int bulge_offset, final int internal_offset, final double shift) {
+		final int first = 1;
+		final int last = _seq_length - EnergyPar.TURN - 3;
+
+		if (_pool == null) {
+			AccumulateBulgeAndInternal(first, last, profile, bulge_offset, internal_offset, shift);
+		} else {
+			// accumulate chunks of closing pairs into separate arrays, merged in a fixed order
+			final int size = RangeTask.chunkSize(first, last, _grain_size);
+			final double[][] partial = new double[RangeTask.chunks(first, last, size)][];
+			RangeTask.run(_pool, 0, partial.length - 1, 1, c -> {
+				partial[c] = new double[2 * _seq_length];
+				AccumulateBulgeAndInternal(first + c * size, Math.min(last, first + (c + 1) * size - 1), partial[c], 0, _seq_length, shift);
+			});
+			for (double[] local : partial) {
+				for (int x = 0; x < _seq_length; x++) {
+					profile[bulge_offset + x] += local[x];
+					profile[internal_offset + x] += local[_seq_length + x];
 				}
 			}
 		}
+	}
 
-		for (int i = 0; i < _seq_length; i++) {
-			if (profile[bulge_offset + i] != 0) {
-				profile[bulge_offset + i] /= Math.exp(_Alpha_outer.get(_seq_length));
-			}
-			if (profile[internal_offset + i] != 0) {
-				profile[internal_offset + i] /= Math.exp(_Alpha_outer.get(_seq_length));
-			}
-		}
-	}	
-	
-	private void CalcBulgeAndInternalProbability(ArrayList<Double> bulge_probability,
-			ArrayList<Double> internal_probability) {
+	/**
+	 * Adds the weights of all bulge and internal loops closed by a base pair <code>(i,j)</code>
+	 * with <code>from &lt;= i &lt;= to</code> to the difference arrays.
+	 */
+	private void AccumulateBulgeAndInternal(int from, int to, double[] profile, int bulge_offset, int internal_offset, double shift) {
 		double temp = 0;
 		int type = 0;
 		int type2 = 0;
+		int offset = 0;
 
-		for (int i = 1; i < _seq_length - EnergyPar.TURN - 2; i++) {
+		for (int i = from; i <= to; i++) {
 			for (int j = i + EnergyPar.TURN + 3; j <= Math.min(i + _maximal_span, _seq_length); j++) {
-				type = EnergyPar.BP_pair[_int_sequence.get(i)][_int_sequence.get(j)];
+				type = PairType(i, j);
 				if (type != 0) {
 					for (int p = i + 1; p <= Math.min(i + EnergyPar.MAXLOOP + 1, j - EnergyPar.TURN - 2); p++) {
 						int u1 = p - i - 1;
 						for (int q = Math.max(p + EnergyPar.TURN + 1, j - EnergyPar.MAXLOOP + u1 - 1); q < j; q++) {
-							type2 = EnergyPar.BP_pair[_int_sequence.get(p)][_int_sequence.get(q)];
+							type2 = PairType(p, q);
 							if (type2 != 0 && !(p == i + 1 && q == j - 1)) {
 								type2 = EnergyPar.rtype[type2];
 								if (_Beta_stemend.get(i,j - i - 1) != -EnergyPar.INF
 										&& _Alpha_stem.get(p - 1,q - p + 1) != -EnergyPar.INF) {
 									temp = Math.exp(
 											_Beta_stemend.get(i,j - i - 1) + LoopEnergy(type, type2, i, j, p, q)
-													+ _Alpha_stem.get(p - 1,q - p + 1));
-
-									for (int k = i + 1; k <= p - 1; k++) {
-										if (j == q + 1) {
-											bulge_probability.set(k - 1, bulge_probability.get(k - 1) + temp);
-										} else {
-											internal_probability.set(k - 1, internal_probability.get(k - 1) + temp);
-										}
-									}
-
-									for (int k = q + 1; k <= j - 1; k++) {
-										if (i == p - 1) {
-											bulge_probability.set(k - 1, bulge_probability.get(k - 1) + temp);
-										} else {
-											internal_probability.set(k - 1, internal_probability.get(k - 1) + temp);
-										}
-									}
-								}
-							}
-						}
-					}
-				}
-			}
-		}
-
-		for (int i = 0; i < _seq_length; i++) {
-			if (bulge_probability.get(i) != 0) {
-				bulge_probability.set(i, bulge_probability.get(i) / Math.exp(_Alpha_outer.get(_seq_length)));
-			}
-			if (internal_probability.get(i) != 0) {
-				internal_probability.set(i, internal_probability.get(i) / Math.exp(_Alpha_outer.get(_seq_length)));
-			}
-		}
-	}
-	
-	
-	private void CalcLogSumBulgeAndInternalProbability2(double[] profile, int bulge_offset, int internal_offset) {
-		double temp = 0;
-		int type = 0;
-		int type2 = 0;
-
-		ArrayList<Boolean> b_flag_array = new ArrayList<Boolean>(_seq_length);
-		ArrayList<Boolean> i_flag_array = new ArrayList<Boolean>(_seq_length);
-		for (int x = 0; x < _seq_length; x++) {
-			b_flag_array.add(false);
-			i_flag_array.add(false);
-		}
+													+ _Alpha_stem.get(p - 1,q - p + 1) - shift);
 
-		for (int i = 1; i < _seq_length - EnergyPar.TURN - 2; i++) {
-			for (int j = i + EnergyPar.TURN + 3; j <= Math.min(i + _maximal_span, _seq_length); j++) {
-				type = EnergyPar.BP_pair[_int_sequence.get(i)][_int_sequence.get(j)];
-				if (type != 0) {
-					for (int p = i + 1; p <= Math.min(i + EnergyPar.MAXLOOP + 1, j - EnergyPar.TURN - 2); p++) {
-						int u1 = p - i - 1;
-						for (int q = Math.max(p + EnergyPar.TURN + 1, j - EnergyPar.MAXLOOP + u1 - 1); q < j; q++) {
-							type2 = EnergyPar.BP_pair[_int_sequence.get(p)][_int_sequence.get(q)];
-							if (type2 != 0 && !(p == i + 1 && q == j - 1)) {
-								type2 = EnergyPar.rtype[type2];
-								if (_Beta_stemend.get(i,j - i - 1) != -EnergyPar.INF
-										&& _Alpha_stem.get(p - 1,q - p + 1) != -EnergyPar.INF) {
-									temp = _Beta_stemend.get(i,j - i - 1) + LoopEnergy(type, type2, i, j, p, q)
-											+ _Alpha_stem.get(p - 1,q - p + 1);
-
-									for (int k = i + 1; k <= p - 1; k++) {
-										if (j == q + 1) {
-											profile[bulge_offset + k - 1] = (b_flag_array.get(k - 1) == true)
-													? logsumexp(profile[bulge_offset + k - 1], temp) : temp;
-											b_flag_array.set(k - 1, true);
-										} else {
-											profile[internal_offset + k - 1] = (i_flag_array.get(k - 1) == true)
-													? logsumexp(profile[internal_offset + k - 1], temp) : temp;
-											i_flag_array.set(k - 1, true);
-										}
+									// unpaired positions i+1..p-1
+									if (p > i + 1) {
+										offset = (j == q + 1) ? bulge_offset : internal_offset;
+										profile[offset + i] += temp;
+										profile[offset + p - 1] -= temp;
 									}
 
-									for (int k = q + 1; k <= j - 1; k++) {
-										if (i == p - 1) {
-											profile[bulge_offset + k - 1] = (b_flag_array.get(k - 1) == true)
-													? logsumexp(profile[bulge_offset + k - 1], temp) : temp;
-											b_flag_array.set(k - 1, true);
-										} else {
-											profile[internal_offset + k - 1] = (i_flag_array.get(k - 1) == true)
-													? logsumexp(profile[internal_offset + k - 1], temp) : temp;
-											i_flag_array.set(k - 1, true);
-										}
+									// unpaired positions q+1..j-1
+									if (j > q + 1) {
+										offset = (i == p - 1) ? bulge_offset : internal_offset;
+										profile[offset + q] += temp;
+										profile[offset + j - 1] -= temp;
 									}
 								}
 							}
@@ -663,85 +1366,21 @@ public class CapR {
 				}
 			}
 		}
-
-		for (int i = 0; i < _seq_length; i++) {
-			if (b_flag_array.get(i) == true) {
-				profile[bulge_offset + i] = Math.exp(profile[bulge_offset + i] - _Alpha_outer.get(_seq_length));
-			}
-			if (i_flag_array.get(i) == true) {
-				profile[internal_offset + i] = Math.exp(profile[internal_offset + i] - _Alpha_outer.get(_seq_length));
-			}
-		}
 	}
 
-	
-
-	private void CalcLogSumBulgeAndInternalProbability(ArrayList<Double> bulge_probability,
-			ArrayList<Double> internal_probability) {
-		double temp = 0;
-		int type = 0;
-		int type2 = 0;
+	/**
+	 * Turns the difference arrays into per position weights by a prefix sum and divides them
+	 * by <code>norm</code>. Rounding can leave tiny negative sums, which are set to zero.
+	 */
+	private void SumBulgeAndInternal(double[] profile, int bulge_offset, int internal_offset, double norm) {
+		double bulge = 0.0;
+		double internal = 0.0;
 
-		ArrayList<Boolean> b_flag_array = new ArrayList<Boolean>(_seq_length);
-		ArrayList<Boolean> i_flag_array = new ArrayList<Boolean>(_seq_length);
 		for (int x = 0; x < _seq_length; x++) {
-			b_flag_array.add(false);
-			i_flag_array.add(false);
-		}
-
-		for (int i = 1; i < _seq_length - EnergyPar.TURN - 2; i++) {
-			for (int j = i + EnergyPar.TURN + 3; j <= Math.min(i + _maximal_span, _seq_length); j++) {
-				type = EnergyPar.BP_pair[_int_sequence.get(i)][_int_sequence.get(j)];
-				if (type != 0) {
-					for (int p = i + 1; p <= Math.min(i + EnergyPar.MAXLOOP + 1, j - EnergyPar.TURN - 2); p++) {
-						int u1 = p - i - 1;
-						for (int q = Math.max(p + EnergyPar.TURN + 1, j - EnergyPar.MAXLOOP + u1 - 1); q < j; q++) {
-							type2 = EnergyPar.BP_pair[_int_sequence.get(p)][_int_sequence.get(q)];
-							if (type2 != 0 && !(p == i + 1 && q == j - 1)) {
-								type2 = EnergyPar.rtype[type2];
-								if (_Beta_stemend.get(i,j - i - 1) != -EnergyPar.INF
-										&& _Alpha_stem.get(p - 1,q - p + 1) != -EnergyPar.INF) {
-									temp = _Beta_stemend.get(i,j - i - 1) + LoopEnergy(type, type2, i, j, p, q)
-											+ _Alpha_stem.get(p - 1,q - p + 1);
-
-									for (int k = i + 1; k <= p - 1; k++) {
-										if (j == q + 1) {
-											bulge_probability.set(k - 1, (b_flag_array.get(k - 1) == true)
-													? logsumexp(bulge_probability.get(k - 1), temp) : temp);
-											b_flag_array.set(k - 1, true);
-										} else {
-											internal_probability.set(k - 1, (i_flag_array.get(k - 1) == true)
-													? logsumexp(internal_probability.get(k - 1), temp) : temp);
-											i_flag_array.set(k - 1, true);
-										}
-									}
-
-									for (int k = q + 1; k <= j - 1; k++) {
-										if (i == p - 1) {
-											bulge_probability.set(k - 1, (b_flag_array.get(k - 1) == true)
-													? logsumexp(bulge_probability.get(k - 1), temp) : temp);
-											b_flag_array.set(k - 1, true);
-										} else {
-											internal_probability.set(k - 1, (i_flag_array.get(k - 1) == true)
-													? logsumexp(internal_probability.get(k - 1), temp) : temp);
-											i_flag_array.set(k - 1, true);
-										}
-									}
-								}
-							}
-						}
-					}
-				}
-			}
-		}
-
-		for (int i = 0; i < _seq_length; i++) {
-			if (b_flag_array.get(i) == true) {
-				bulge_probability.set(i, Math.exp(bulge_probability.get(i) - _Alpha_outer.get(_seq_length)));
-			}
-			if (i_flag_array.get(i) == true) {
-				internal_probability.set(i, Math.exp(internal_probability.get(i) - _Alpha_outer.get(_seq_length)));
-			}
+			bulge += profile[bulge_offset + x];
+			internal += profile[internal_offset + x];
+			profile[bulge_offset + x] = bulge > 0.0 ? bulge / norm : 0.0;
+			profile[internal_offset + x] = internal > 0.0 ? internal / norm : 0.0;
 		}
 	}
 
@@ -749,9 +1388,9 @@ public class CapR {
 		double x = 0;
 		if (type != 0) {
 			if (a > 0)
-				x += dangle5[type][_int_sequence.get(a)];
+				x += dangle5[EnergyModel.dangleIndex(type, _int_sequence[a])];
 			if (b < _seq_length)
-				x += dangle3[type][_int_sequence.get(b + 1)];
+				x += dangle3[EnergyModel.dangleIndex(type, _int_sequence[b + 1])];
 			if (b == _seq_length && type > 2) {
 				x += TermAU;
 			}
@@ -759,158 +1398,186 @@ public class CapR {
 		return (x);
 	}
 
-	private void CalcOutsideVariable() {
+	void CalcOutsideVariable() {
+		_outside_stale = false;
 		// Beta_outer
 		for (int i = _seq_length - 1; i >= 0; i--) {
-			double temp = _Beta_outer.get(i + 1);
+			double temp = _Beta_outer[i + 1];
 			for (int p = i + 1; p <= Math.min(i + _maximal_span + 1, _seq_length); p++) {
 				if (_Alpha_stem.get(i,p - i) != -EnergyPar.INF) {
-					int type = EnergyPar.BP_pair[_int_sequence.get(i + 1)][_int_sequence.get(p)];
+					int type = PairType(i + 1, p);
 					double bo = _Alpha_stem.get(i,p - i) + CalcDangleEnergy(type, i, p);
-					temp = logsumexp(temp, bo + _Beta_outer.get(p));
+					temp = logsumexp(temp, bo + _Beta_outer[p]);
 				}
 			}
-			_Beta_outer.set(i, temp);
+			_Beta_outer[i] = temp;
 		}
 
-		for (int q = _seq_length; q >= EnergyPar.TURN + 1; q--) {
-			for (int p = Math.max(0, q - _maximal_span - 1); p <= q - EnergyPar.TURN; p++) {
-				int type = 0;
-				int type2 = 0;
+		if (_pool == null) {
+			for (int q = _seq_length; q >= EnergyPar.TURN + 1; q--) {
+				for (int p = Math.max(0, q - _maximal_span - 1); p <= q - EnergyPar.TURN; p++) {
+					CalcOutsideCell(p, q);
+				}
+			}
+		} else {
+			// all cells of a span depend on longer spans only
+			MaterializeTables();
+			for (int d = Math.min(_seq_length, _maximal_span + 1); d >= EnergyPar.TURN; d--) {
+				final int span = d;
+				RangeTask.run(_pool, Math.max(0, EnergyPar.TURN + 1 - span), _seq_length - span, _grain_size,
+						p -> CalcOutsideCell(p, p + span));
+			}
+		}
+	}
 
-				double temp = 0;
-				boolean flag = false;
-				if (p != 0 && q != _seq_length) {
-					// Beta_stemend
-					_Beta_stemend.set(p, q - p,
-							(q - p >= _maximal_span) ? -EnergyPar.INFD : _Beta_stem.get(p - 1,q - p + 2));
+	/**
+	 * Computes all outside variables of the subsequence <code>(p,q]</code>. Requires all
+	 * subsequences of longer span to be computed.
+	 */
+	private void CalcOutsideCell(int p, int q) {
+		int type = 0;
+		int type2 = 0;
 
-					// Beta_Multi
-					flag = false;
-					if (q - p + 1 <= _maximal_span + 1) {
-						if (_Beta_multi.get(p - 1,q - p + 1) != -EnergyPar.INF) {
-							temp = _Beta_multi.get(p - 1,q - p + 1) + MLbase;
-							flag = true;
-						}
-					}
+		double temp = 0;
+		boolean flag = false;
+		if (p != 0 && q != _seq_length) {
+			// Beta_stemend
+			_Beta_stemend.set(p, q - p,
+					(q - p >= _maximal_span) ? -EnergyPar.INFD : _Beta_stem.get(p - 1,q - p + 2));
+
+			// Beta_Multi
+			flag = false;
+			if (q - p + 1 <= _maximal_span + 1) {
+				if (_Beta_multi.get(p - 1,q - p + 1) != -EnergyPar.INF) {
+					temp = _Beta_multi.get(p - 1,q - p + 1) + MLbase;
+					flag = true;
+				}
+			}
 
-					type = EnergyPar.BP_pair[_int_sequence.get(p)][_int_sequence.get(q + 1)];
-					int tt = EnergyPar.rtype[type];
-					if (flag == true) {
-						if (_Beta_stemend.get(p,q - p) != -EnergyPar.INF) {
-							temp = logsumexp(temp, _Beta_stemend.get(p,q - p) + MLclosing + MLintern
-									+ dangle3[tt][_int_sequence.get(p + 1)] + dangle5[tt][_int_sequence.get(q)]);
-						}
-					} else {
-						if (_Beta_stemend.get(p,q - p) != -EnergyPar.INF) {
-							temp = _Beta_stemend.get(p,q - p) + MLclosing + MLintern
-									+ dangle3[tt][_int_sequence.get(p + 1)] + dangle5[tt][_int_sequence.get(q)];
-						} else {
-							temp = -EnergyPar.INF;
-						}
-					}
-					_Beta_multi.set(p, q - p, temp);
-
-					// Beta_Multi1
-					temp = 0;
-					flag = false;
-					for (int k = q + 1; k <= Math.min(_seq_length, p + _maximal_span); k++) {
-						if (_Beta_multibif.get(p,k - p) != -EnergyPar.INF
-								&& _Alpha_multi2.get(q,k - q) != -EnergyPar.INF) {
-							temp = (flag == false) ? _Beta_multibif.get(p,k - p) + _Alpha_multi2.get(q,k - q)
-									: logsumexp(temp,
-											_Beta_multibif.get(p,k - p) + _Alpha_multi2.get(q,k - q));
-							flag = true;
-						}
-					}
-					_Beta_multi1.set(p, q - p, (flag == true) ? temp : -EnergyPar.INF);
-
-					// Beta_Multi2
-					temp = 0;
-					flag = false;
-					if (_Beta_multi1.get(p,q - p) != -EnergyPar.INF) {
-						temp = _Beta_multi1.get(p,q - p);
-						flag = true;
-					}
-					if (q - p <= _maximal_span) {
-						if (_Beta_multi2.get(p,q - p + 1) != -EnergyPar.INF) {
-							temp = (flag == true) ? logsumexp(temp, _Beta_multi2.get(p,q - p + 1) + MLbase)
-									: _Beta_multi2.get(p,q - p + 1) + MLbase;
-							flag = true;
-						}
-					}
+			type = PairType(p, q + 1);
+			int tt = EnergyPar.rtype[type];
+			if (flag == true) {
+				if (_Beta_stemend.get(p,q - p) != -EnergyPar.INF) {
+					temp = logsumexp(temp, _Beta_stemend.get(p,q - p) + MLclosing + MLintern
+							+ dangle3[EnergyModel.dangleIndex(tt, _int_sequence[p + 1])]
+									+ dangle5[EnergyModel.dangleIndex(tt, _int_sequence[q])]);
+				}
+			} else {
+				if (_Beta_stemend.get(p,q - p) != -EnergyPar.INF) {
+					temp = _Beta_stemend.get(p,q - p) + MLclosing + MLintern
+							+ dangle3[EnergyModel.dangleIndex(tt, _int_sequence[p + 1])]
+									+ dangle5[EnergyModel.dangleIndex(tt, _int_sequence[q])];
+				} else {
+					temp = -EnergyPar.INF;
+				}
+			}
+			_Beta_multi.set(p, q - p, temp);
+
+			// Beta_Multi1
+			temp = 0;
+			flag = false;
+			for (int k = q + 1; k <= Math.min(_seq_length, p + _maximal_span); k++) {
+				if (_Beta_multibif.get(p,k - p) != -EnergyPar.INF
+						&& _Alpha_multi2.get(q,k - q) != -EnergyPar.INF) {
+					temp = (flag == false) ? _Beta_multibif.get(p,k - p) + _Alpha_multi2.get(q,k - q)
+							: logsumexp(temp,
+									_Beta_multibif.get(p,k - p) + _Alpha_multi2.get(q,k - q));
+					flag = true;
+				}
+			}
+			_Beta_multi1.set(p, q - p, (flag == true) ? temp : -EnergyPar.INF);
 
-					for (int k = Math.max(0, q - _maximal_span); k < p; k++) {
-						if (_Beta_multibif.get(k,q - k) != -EnergyPar.INF
-								&& _Alpha_multi1.get(k,p - k) != -EnergyPar.INF) {
-							temp = (flag == false) ? _Beta_multibif.get(k,q - k) + _Alpha_multi1.get(k,p - k)
-									: logsumexp(temp,
-											_Beta_multibif.get(k,q - k) + _Alpha_multi1.get(k,p - k));
-							flag = true;
-						}
-					}
-					_Beta_multi2.set(p, q - p, (flag == false) ? -EnergyPar.INF : temp);
-
-					// Beta_multibif
-					if (_Beta_multi1.get(p,q - p) != -EnergyPar.INF
-							&& _Beta_multi.get(p,q - p) != -EnergyPar.INF) {
-						_Beta_multibif.set(p, q - p,
-								logsumexp(_Beta_multi1.get(p,q - p), _Beta_multi.get(p,q - p)));
-					} else if (_Beta_multi.get(p,q - p) == -EnergyPar.INF) {
-						_Beta_multibif.set(p, q - p, _Beta_multi1.get(p,q - p));
-					} else if (_Beta_multi1.get(p,q - p) == -EnergyPar.INF) {
-						_Beta_multibif.set(p, q - p, _Beta_multi.get(p,q - p));
-					} else {
-						_Beta_multibif.set(p, q - p, (double) -EnergyPar.INF);
-					}
+			// Beta_Multi2
+			temp = 0;
+			flag = false;
+			if (_Beta_multi1.get(p,q - p) != -EnergyPar.INF) {
+				temp = _Beta_multi1.get(p,q - p);
+				flag = true;
+			}
+			if (q - p <= _maximal_span) {
+				if (_Beta_multi2.get(p,q - p + 1) != -EnergyPar.INF) {
+					temp = (flag == true) ? logsumexp(temp, _Beta_multi2.get(p,q - p + 1) + MLbase)
+							: _Beta_multi2.get(p,q - p + 1) + MLbase;
+					flag = true;
+				}
+			}
 
+			for (int k = Math.max(0, q - _maximal_span); k < p; k++) {
+				if (_Beta_multibif.get(k,q - k) != -EnergyPar.INF
+						&& _Alpha_multi1.get(k,p - k) != -EnergyPar.INF) {
+					temp = (flag == false) ? _Beta_multibif.get(k,q - k) + _Alpha_multi1.get(k,p - k)
+							: logsumexp(temp,
+									_Beta_multibif.get(k,q - k) + _Alpha_multi1.get(k,p - k));
+					flag = true;
 				}
+			}
+			_Beta_multi2.set(p, q - p, (flag == false) ? -EnergyPar.INF : temp);
+
+			// Beta_multibif
+			if (_Beta_multi1.get(p,q - p) != -EnergyPar.INF
+					&& _Beta_multi.get(p,q - p) != -EnergyPar.INF) {
+				_Beta_multibif.set(p, q - p,
+						logsumexp(_Beta_multi1.get(p,q - p), _Beta_multi.get(p,q - p)));
+			} else if (_Beta_multi.get(p,q - p) == -EnergyPar.INF) {
+				_Beta_multibif.set(p, q - p, _Beta_multi1.get(p,q - p));
+			} else if (_Beta_multi1.get(p,q - p) == -EnergyPar.INF) {
+				_Beta_multibif.set(p, q - p, _Beta_multi.get(p,q - p));
+			} else {
+				_Beta_multibif.set(p, q - p, (double) -EnergyPar.INF);
+			}
 
-				// Beta_stem
-				type2 = EnergyPar.BP_pair[_int_sequence.get(p + 1)][_int_sequence.get(q)];
-				if (type2 != 0) {
-					temp = _Alpha_outer.get(p) + _Beta_outer.get(q) + CalcDangleEnergy(type2, p, q);
-
-					type2 = EnergyPar.rtype[type2];
-					for (int i = Math.max(1, p - EnergyPar.MAXLOOP); i <= p; i++) {
-						for (int j = q; j <= Math.min(q + EnergyPar.MAXLOOP - p + i, _seq_length - 1); j++) {
-							type = EnergyPar.BP_pair[_int_sequence.get(i)][_int_sequence.get(j + 1)];
-							if (type != 0 && !(i == p && j == q)) {
-								if (j - i <= _maximal_span + 1 && _Beta_stemend.get(i,j - i) != -EnergyPar.INF) {
-									temp = logsumexp(temp, _Beta_stemend.get(i,j - i)
-											+ LoopEnergy(type, type2, i, j + 1, p + 1, q));
-								}
-							}
-						}
-					}
+		}
 
-					if (p != 0 && q != _seq_length) {
-						type = EnergyPar.BP_pair[_int_sequence.get(p)][_int_sequence.get(q + 1)];
-						if (type != 0) {
-							if (q - p + 2 <= _maximal_span + 1
-									&& _Beta_stem.get(p - 1,q - p + 2) != -EnergyPar.INF) {
-								temp = logsumexp(temp, _Beta_stem.get(p - 1,q - p + 2)
-										+ LoopEnergy(type, type2, p, q + 1, p + 1, q));
-							}
+		// Beta_stem
+		type2 = PairType(p + 1, q);
+		if (type2 != 0) {
+			temp = _Alpha_outer[p] + _Beta_outer[q] + CalcDangleEnergy(type2, p, q);
+
+			type2 = EnergyPar.rtype[type2];
+			for (int i = Math.max(1, p - EnergyPar.MAXLOOP); i <= p; i++) {
+				for (int j = q; j <= Math.min(Math.min(q + EnergyPar.MAXLOOP - p + i, i + _maximal_span + 1), _seq_length - 1); j++) {
+					type = PairType(i, j + 1);
+					if (type != 0 && !(i == p && j == q)) {
+						if (_Beta_stemend.get(i,j - i) != -EnergyPar.INF) {
+							temp = logsumexp(temp, _Beta_stemend.get(i,j - i)
+									+ LoopEnergy(type, type2, i, j + 1, p + 1, q));
 						}
 					}
-					_Beta_stem.set(p, q - p, temp);
+				}
+			}
 
-					if (_Beta_multi2.get(p,q - p) != -EnergyPar.INF) {
-						type2 = EnergyPar.rtype[type2];
-						temp = _Beta_multi2.get(p,q - p) + MLintern + CalcDangleEnergy(type2, p, q);
-						_Beta_stem.set(p, q - p, logsumexp(temp, _Beta_stem.get(p,q - p)));
+			if (p != 0 && q != _seq_length) {
+				type = PairType(p, q + 1);
+				if (type != 0) {
+					if (q - p + 2 <= _maximal_span + 1
+							&& _Beta_stem.get(p - 1,q - p + 2) != -EnergyPar.INF) {
+						temp = logsumexp(temp, _Beta_stem.get(p - 1,q - p + 2)
+								+ LoopEnergy(type, type2, p, q + 1, p + 1, q));
 					}
-				} else {
-					_Beta_stem.set(p, q - p, (double) -EnergyPar.INF);
 				}
 			}
+			_Beta_stem.set(p, q - p, temp);
+
+			if (_Beta_multi2.get(p,q - p) != -EnergyPar.INF) {
+				type2 = EnergyPar.rtype[type2];
+				temp = _Beta_multi2.get(p,q - p) + MLintern + CalcDangleEnergy(type2, p, q);
+				_Beta_stem.set(p, q - p, logsumexp(temp, _Beta_stem.get(p,q - p)));
+			}
+		} else {
+			_Beta_stem.set(p, q - p, (double) -EnergyPar.INF);
 		}
 	}
 
 	private double logsumexp(double x, double y) {
-		double temp = x > y ? x + Math.log(Math.exp(y - x) + 1.0) : y + Math.log(Math.exp(x - y) + 1.0);
-		return (temp);
+		if (_count_logsumexp) {
+			// concurrent workers of a parallel fold share the adder
+			if (_pool == null) {
+				_logsumexp_count++;
+			} else {
+				_logsumexp_calls.increment();
+			}
+		}
+		return _logsumexp.apply(x, y);
 	}
 
 	private double LoopEnergy(int type, int type2, int i, int j, int p, int q) {
@@ -919,15 +1586,15 @@ public class CapR {
 		int u2 = j - q - 1;
 
 		if ((u1 == 0) && (u2 == 0)) {
-			z = stack[type][type2];
+			z = stack[EnergyModel.stackIndex(type, type2)];
 		} else {
 			if ((u1 == 0) || (u2 == 0)) {
 				int u;
 				u = u1 == 0 ? u2 : u1;
-				z = u <= 30 ? bulge[u] : bulge[30] - EnergyPar.lxc37 * Math.log(u / 30.) * 10. / EnergyPar.kT;
+				z = u <= 30 ? bulge[u] : bulge[30] - EnergyPar.lxc37 * Math.log(u / 30.) * 10. / kT;
 
 				if (u == 1) {
-					z += stack[type][type2];
+					z += stack[EnergyModel.stackIndex(type, type2)];
 				} else {
 					if (type > 2) {
 						z += TermAU;
@@ -938,19 +1605,19 @@ public class CapR {
 				}
 			} else {
 				if (u1 + u2 == 2) {
-					z = int11[type][type2][_int_sequence.get(i + 1)][_int_sequence.get(j - 1)];
+					z = int11[EnergyModel.int11Index(type, type2, _int_sequence[i + 1], _int_sequence[j - 1])];
 				} else if ((u1 == 1) && (u2 == 2)) {
-					z = int21[type][type2][_int_sequence.get(i + 1)][_int_sequence.get(q + 1)][_int_sequence
-							.get(j - 1)];
+					z = int21[EnergyModel.int21Index(type, type2,
+							_int_sequence[i + 1], _int_sequence[q + 1], _int_sequence[j - 1])];
 				} else if ((u1 == 2) && (u2 == 1)) {
-					z = int21[type2][type][_int_sequence.get(q + 1)][_int_sequence.get(i + 1)][_int_sequence
-							.get(p - 1)];
+					z = int21[EnergyModel.int21Index(type2, type,
+							_int_sequence[q + 1], _int_sequence[i + 1], _int_sequence[p - 1])];
 				} else if ((u1 == 2) && (u2 == 2)) {
-					z = int22[type][type2][_int_sequence.get(i + 1)][_int_sequence.get(p - 1)][_int_sequence
-							.get(q + 1)][_int_sequence.get(j - 1)];
+					z = int22[EnergyModel.int22Index(type, type2,
+							_int_sequence[i + 1], _int_sequence[p - 1], _int_sequence[q + 1], _int_sequence[j - 1])];
 				} else {
-					z = internal[u1 + u2] + mismatchI[type][_int_sequence.get(i + 1)][_int_sequence.get(j - 1)]
-							+ mismatchI[type2][_int_sequence.get(q + 1)][_int_sequence.get(p - 1)];
+					z = internal[u1 + u2] + mismatchI[EnergyModel.mismatchIndex(type, _int_sequence[i + 1], _int_sequence[j - 1])]
+							+ mismatchI[EnergyModel.mismatchIndex(type2, _int_sequence[q + 1], _int_sequence[p - 1])];
 					z += ninio[Math.abs(u1 - u2)];
 				}
 			}
@@ -962,9 +1629,9 @@ public class CapR {
 		int d = j - i - 1;
 		double q = 0;
 
-		q = d <= 30 ? hairpin[d] : hairpin[30] - EnergyPar.lxc37 * Math.log(d / 30.) * 10. / EnergyPar.kT;
+		q = d <= 30 ? hairpin[d] : hairpin[30] - EnergyPar.lxc37 * Math.log(d / 30.) * 10. / kT;
 		if (d != 3) {
-			q += mismatchH[type][_int_sequence.get(i + 1)][_int_sequence.get(j - 1)];
+			q += mismatchH[EnergyModel.mismatchIndex(type, _int_sequence[i + 1], _int_sequence[j - 1])];
 		} else {
 			if (type > 2) {
 				q += TermAU;
@@ -973,13 +1640,27 @@ public class CapR {
 		return q;
 	}
 
+	/**
+	 * @return the numeric code of a nucleotide as used by the energy tables, 0 for unknown characters
+	 */
+	private static byte Encode(byte nucleotide) {
+		if (nucleotide == 'A' || nucleotide == 'a') {
+			return 1;
+		} else if (nucleotide == 'C' || nucleotide == 'c') {
+			return 2;
+		} else if (nucleotide == 'G' || nucleotide == 'g') {
+			return 3;
+		} else if (nucleotide == 'T' || nucleotide == 't' || nucleotide == 'U' || nucleotide == 'u') {
+			return 4;
+		} else {
+			return 0;
+		}
+	}
+
 	private void Clear() {
 		
-		_int_sequence.clear();
 		_seq_length = 0;
-		
-		_Alpha_outer.clear();
-		_Beta_outer.clear();
+		_outside_stale = false;
 		
 	}
 
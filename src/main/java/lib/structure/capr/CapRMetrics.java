@@ -0,0 +1,198 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * @author Jan Hoinka
+ *
+ * A registry aggregating the fold metrics of any number of CapR instances: a latency
+ * histogram per <code>FoldPhase</code>, counters of the work done by the recursions, and
+ * the size of the largest workspace. The registry is a <code>FoldListener</code> itself,
+ * attached to instances via <code>CapR.setFoldListener</code>, e.g. by the factory of a
+ * <code>CapRPool</code>, and forwards all events to the listeners added to it.
+ *
+ * The aggregates can be published as a platform MXBean with <code>register</code>, for JMX
+ * consoles or agents, without any dependency beyond the JDK.
+ */
+public class CapRMetrics implements FoldListener, CapRMetricsMXBean {
+
+	/**
+	 * Domain of the object names of registered instances
+	 */
+	public static final String DOMAIN = "lib.structure.capr";
+
+	private final LatencyHistogram[] latencies = new LatencyHistogram[FoldPhase.values().length];
+
+	private final LongAdder folds = new LongAdder();
+
+	private final LongAdder cells = new LongAdder();
+
+	private final LongAdder empty_cells = new LongAdder();
+
+	private final LongAdder logsumexp_calls = new LongAdder();
+
+	private final LongAccumulator max_workspace_bytes = new LongAccumulator(Math::max, 0);
+
+	private final LongAccumulator max_length = new LongAccumulator(Math::max, 0);
+
+	private final List<FoldListener> listeners = new CopyOnWriteArrayList<FoldListener>();
+
+	/**
+	 * Name under which this registry is published, or null
+	 */
+	private ObjectName name = null;
+
+	public CapRMetrics() {
+		for (int p = 0; p < latencies.length; p++) {
+			latencies[p] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * Forwards all subsequent events to <code>listener</code>, in addition to aggregating them
+	 * @param listener
+	 */
+	public void addListener(FoldListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(FoldListener listener) {
+		listeners.remove(listener);
+	}
+
+	@Override
+	public void onPhase(FoldPhase phase, int length, long nanos) {
+
+		latencies[phase.ordinal()].record(nanos);
+		for (FoldListener listener : listeners) {
+			listener.onPhase(phase, length, nanos);
+		}
+
+	}
+
+	@Override
+	public void onFold(FoldStatistics statistics) {
+
+		folds.increment();
+		cells.add(statistics.getCells());
+		empty_cells.add(statistics.getEmptyCells());
+		logsumexp_calls.add(statistics.getLogSumExpCalls());
+		max_workspace_bytes.accumulate(statistics.getWorkspaceBytes());
+		max_length.accumulate(statistics.getLength());
+		for (FoldListener listener : listeners) {
+			listener.onFold(statistics);
+		}
+
+	}
+
+	/**
+	 * @return the latency histogram of <code>phase</code>, in nanoseconds
+	 */
+	public LatencyHistogram getLatency(FoldPhase phase) {
+		return latencies[phase.ordinal()];
+	}
+
+	@Override
+	public long getFolds() {
+		return folds.sum();
+	}
+
+	@Override
+	public long getCells() {
+		return cells.sum();
+	}
+
+	@Override
+	public long getEmptyCells() {
+		return empty_cells.sum();
+	}
+
+	@Override
+	public long getLogSumExpCalls() {
+		return logsumexp_calls.sum();
+	}
+
+	@Override
+	public long getMaxWorkspaceBytes() {
+		return max_workspace_bytes.get();
+	}
+
+	@Override
+	public int getMaxLength() {
+		return (int) max_length.get();
+	}
+
+	@Override
+	public Map<String, LatencySummary> getLatencies() {
+
+		Map<String, LatencySummary> summaries = new LinkedHashMap<String, LatencySummary>();
+		for (FoldPhase phase : FoldPhase.values()) {
+			summaries.put(phase.name(), latencies[phase.ordinal()].getSummary());
+		}
+		return summaries;
+
+	}
+
+	@Override
+	public void reset() {
+
+		for (LatencyHistogram latency : latencies) {
+			latency.reset();
+		}
+		folds.reset();
+		cells.reset();
+		empty_cells.reset();
+		logsumexp_calls.reset();
+		max_workspace_bytes.reset();
+		max_length.reset();
+
+	}
+
+	/**
+	 * Publishes this registry on the platform MBean server as
+	 * <code>lib.structure.capr:type=CapRMetrics,name=&lt;name&gt;</code>
+	 * @param name distinguishes several registries of the same JVM
+	 * @throws JMException if the name is malformed or already taken
+	 */
+	public synchronized void register(String name) throws JMException {
+
+		if (this.name != null) {
+			throw new IllegalStateException("The metrics are already registered as " + this.name);
+		}
+
+		ObjectName object_name = new ObjectName(DOMAIN + ":type=CapRMetrics,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, object_name);
+		this.name = object_name;
+
+	}
+
+	/**
+	 * Removes this registry from the platform MBean server, if it was registered
+	 * @throws JMException
+	 */
+	public synchronized void unregister() throws JMException {
+
+		if (name != null) {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			name = null;
+		}
+
+	}
+
+}
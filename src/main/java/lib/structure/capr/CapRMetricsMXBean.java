@@ -0,0 +1,56 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import java.util.Map;
+
+/**
+ * @author Jan Hoinka
+ *
+ * The management interface of <code>CapRMetrics</code>, as published by
+ * <code>CapRMetrics.register</code>.
+ */
+public interface CapRMetricsMXBean {
+
+	/**
+	 * @return the number of completed folds
+	 */
+	long getFolds();
+
+	/**
+	 * @return the number of computed cells of the inside and outside tables
+	 */
+	long getCells();
+
+	/**
+	 * @return the number of computed cells holding the value of an impossible state
+	 */
+	long getEmptyCells();
+
+	/**
+	 * @return the number of <code>logsumexp</code> evaluations of the inside and outside recursions
+	 */
+	long getLogSumExpCalls();
+
+	/**
+	 * @return the largest workspace of a folding instance in bytes
+	 */
+	long getMaxWorkspaceBytes();
+
+	/**
+	 * @return the longest sequence folded
+	 */
+	int getMaxLength();
+
+	/**
+	 * @return the latencies in microseconds by the name of their <code>FoldPhase</code>
+	 */
+	Map<String, LatencySummary> getLatencies();
+
+	/**
+	 * Discards all counters and latencies
+	 */
+	void reset();
+
+}
@@ -0,0 +1,324 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * @author Jan Hoinka
+ *
+ * A thread-safe pool of CapR workspaces. A CapR instance owns the dynamic programming
+ * tables of a fold and can only be used by one thread at a time, whereas its energy model
+ * is immutable and shared. The pool hands out idle instances to any thread asking for one
+ * and creates new instances on demand, so that the number of instances, and thereby the
+ * memory held by their tables, grows to the number of concurrent folds only. Since tables
+ * only ever grow, returned instances fold sequences of similar size without allocating.
+ */
+public class CapRPool {
+
+	/**
+	 * Creates new instances if no idle one is available
+	 */
+	private final Supplier<CapR> factory;
+
+	/**
+	 * Instances which are currently not in use
+	 */
+	private final ConcurrentLinkedQueue<CapR> idle = new ConcurrentLinkedQueue<CapR>();
+
+	/**
+	 * Number of consecutive sequences of a batch folded by a single task
+	 */
+	private volatile int batch_size = 64;
+
+	/**
+	 * Number of consecutive positions of a mutation scan handled by a single task, each of
+	 * which folds the wild type once
+	 */
+	private static final int POSITIONS_PER_TASK = 16;
+
+	/**
+	 * Creates a pool of instances using the shared default energy model
+	 */
+	public CapRPool() {
+		this(CapR::new);
+	}
+
+	/**
+	 * Creates a pool of instances sharing <code>model</code>
+	 * @param model
+	 */
+	public CapRPool(EnergyModel model) {
+		this(() -> new CapR(model));
+	}
+
+	/**
+	 * Creates a pool of instances created, and configured, by <code>factory</code>. The
+	 * factory may be called concurrently.
+	 * @param factory
+	 */
+	public CapRPool(Supplier<CapR> factory) {
+		this.factory = factory;
+	}
+
+	/**
+	 * Takes an idle instance from the pool, or creates a new one. The caller has exclusive
+	 * access to the instance until it is handed back with <code>release</code>.
+	 */
+	public CapR acquire() {
+
+		CapR capr = idle.poll();
+		return capr != null ? capr : factory.get();
+
+	}
+
+	/**
+	 * Returns an instance obtained from <code>acquire</code> to the pool.
+	 * @param capr
+	 */
+	public void release(CapR capr) {
+
+		idle.offer(capr);
+
+	}
+
+	/**
+	 * Folds <code>sequence</code> on a pooled instance and returns its structural profile.
+	 * This method can be called from any number of threads at once.
+	 * @param sequence
+	 * @param maximal_span
+	 * @return the profile in the layout of <code>CapR.getStructuralProfile</code>
+	 */
+	public double[] getStructuralProfile(byte[] sequence, int maximal_span) {
+
+		CapR capr = acquire();
+		try {
+			capr.ComputeStructuralProfile(sequence, maximal_span);
+			return capr.getStructuralProfile();
+		} finally {
+			release(capr);
+		}
+
+	}
+
+	/**
+	 * Folds all <code>sequences</code> on <code>executor</code> and returns their profiles
+	 * in input order. Blocks until all sequences have been folded.
+	 * @param sequences
+	 * @param maximal_span the maximal span, or a value &lt;= 0 to use the length of each sequence
+	 * @param executor the executor to fold on
+	 * @return the profiles in the layout of <code>CapR.getStructuralProfile</code>
+	 * @throws CompletionException if any fold failed or the calling thread was interrupted
+	 */
+	public List<double[]> profileAll(List<byte[]> sequences, int maximal_span, Executor executor) {
+
+		final double[][] profiles = new double[sequences.size()][];
+		profileAll(sequences, maximal_span, executor, (index, sequence, profile) -> profiles[index] = profile);
+		return Arrays.asList(profiles);
+
+	}
+
+	/**
+	 * Folds all <code>sequences</code> on the common fork-join pool and returns their
+	 * profiles in input order.
+	 * @see #profileAll(List, int, Executor)
+	 */
+	public List<double[]> profileAll(List<byte[]> sequences, int maximal_span) {
+
+		return profileAll(sequences, maximal_span, ForkJoinPool.commonPool());
+
+	}
+
+	/**
+	 * Folds all <code>sequences</code> on <code>executor</code> and hands every profile to
+	 * <code>callback</code> as soon as it is available. Blocks until all sequences have been
+	 * folded. The batch is split into tasks of <code>getBatchSize()</code> consecutive
+	 * sequences, each of which folds on a single pooled instance. The calling thread folds
+	 * tasks as well, including those the executor rejects, so that this method can also be
+	 * called from a task running on <code>executor</code>. After the first failure, remaining
+	 * tasks are skipped.
+	 * @param sequences
+	 * @param maximal_span the maximal span, or a value &lt;= 0 to use the length of each sequence
+	 * @param executor the executor to fold on
+	 * @param callback receives the profiles, possibly concurrently
+	 * @throws CompletionException if any fold or callback failed or the calling thread was interrupted
+	 */
+	public void profileAll(final List<byte[]> sequences, final int maximal_span, Executor executor, final ProfileCallback callback) {
+
+		forEachChunk(sequences.size(), batch_size, executor, (from, to) -> profileRange(sequences, from, to, maximal_span, callback));
+
+	}
+
+	/**
+	 * Computes the effect of all single nucleotide mutations of <code>sequence</code> on
+	 * <code>executor</code>. The positions are split into tasks of consecutive positions,
+	 * each of which scans its positions on a single pooled instance, see
+	 * <code>CapR.ComputeMutationScan</code>. Blocks until all mutants have been reported.
+	 * Scans always use <code>Engine.LOG</code>, whichever engine the pooled instances are
+	 * configured with.
+	 * @param sequence the wild type
+	 * @param maximal_span the maximal span, or a value &lt;= 0 to use the length of the sequence
+	 * @param executor the executor to fold on
+	 * @param callback receives the differences to the wild type profile, possibly concurrently
+	 * @return the profile of the wild type
+	 * @throws CompletionException if any fold or callback failed or the calling thread was interrupted
+	 */
+	public double[] scanMutations(final byte[] sequence, int maximal_span, Executor executor, final MutationCallback callback) {
+
+		final int span = maximal_span > 0 ? maximal_span : sequence.length;
+		final double[][] wild_type = new double[1][];
+
+		forEachChunk(sequence.length, POSITIONS_PER_TASK, executor, (from, to) -> {
+			CapR capr = acquire();
+			try {
+				double[] profile = capr.ComputeMutationScan(sequence, span, from, to, callback);
+				if (from == 0) {
+					wild_type[0] = profile;
+				}
+			} finally {
+				release(capr);
+			}
+		});
+
+		return wild_type[0] != null ? wild_type[0] : getStructuralProfile(sequence, span);
+
+	}
+
+	/**
+	 * Computes the effect of all single nucleotide mutations of <code>sequence</code> on the
+	 * common fork-join pool.
+	 * @see #scanMutations(byte[], int, Executor, MutationCallback)
+	 */
+	public double[] scanMutations(byte[] sequence, int maximal_span, MutationCallback callback) {
+
+		return scanMutations(sequence, maximal_span, ForkJoinPool.commonPool(), callback);
+
+	}
+
+	/**
+	 * Work on a range <code>[from,to)</code> of indices
+	 */
+	interface ChunkAction {
+		void run(int from, int to);
+	}
+
+	/**
+	 * Splits <code>[0,count)</code> into chunks of <code>chunk_size</code> consecutive indices
+	 * and runs <code>action</code> on each of them on <code>executor</code>. Blocks until all
+	 * chunks completed. Chunks are claimed in order by the tasks submitted to the executor
+	 * as well as by the calling thread, which keeps claiming chunks until none are left and
+	 * then only waits for the chunks still running on other threads. This method can hence
+	 * be called from a task of <code>executor</code> itself without deadlocking, even if all
+	 * of its threads are busy. Chunks not yet started are skipped after the first failure.
+	 * An interrupt of the calling thread counts as a failure, after which the chunks already
+	 * started are waited for, so that <code>action</code> is never called after this method
+	 * returned.
+	 * @throws CompletionException if any chunk failed or the calling thread was interrupted
+	 */
+	static void forEachChunk(final int count, final int chunk_size, Executor executor, final ChunkAction action) {
+
+		final int tasks = (count + chunk_size - 1) / chunk_size;
+		final CountDownLatch done = new CountDownLatch(tasks);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final AtomicInteger next = new AtomicInteger();
+
+		Runnable worker = () -> {
+			int t;
+			while ((t = next.getAndIncrement()) < tasks) {
+				int from = t * chunk_size;
+				try {
+					if (failure.get() == null) {
+						action.run(from, Math.min(count, from + chunk_size));
+					}
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
+				} finally {
+					done.countDown();
+				}
+			}
+		};
+
+		// the calling thread takes the part of any task the executor rejects or is too busy for
+		for (int t = 1; t < tasks; t++) {
+			try {
+				executor.execute(worker);
+			} catch (RejectedExecutionException e) {
+				break;
+			}
+		}
+		worker.run();
+
+		boolean interrupted = false;
+		while (true) {
+			try {
+				done.await();
+				break;
+			} catch (InterruptedException e) {
+				failure.compareAndSet(null, e);
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (failure.get() != null) {
+			throw new CompletionException(failure.get());
+		}
+
+	}
+
+	/**
+	 * Folds the sequences <code>[from,to)</code> on a single pooled instance
+	 */
+	private void profileRange(List<byte[]> sequences, int from, int to, int maximal_span, ProfileCallback callback) {
+
+		CapR capr = acquire();
+		try {
+			for (int index = from; index < to; index++) {
+				byte[] sequence = sequences.get(index);
+				capr.ComputeStructuralProfile(sequence, maximal_span > 0 ? maximal_span : sequence.length);
+				callback.accept(index, sequence, capr.getStructuralProfile());
+			}
+		} finally {
+			release(capr);
+		}
+
+	}
+
+	/**
+	 * Sets the number of consecutive sequences of a batch folded by a single task.
+	 * Larger values reduce the scheduling overhead, smaller ones balance the load
+	 * of batches of sequences with very different lengths. Defaults to 64.
+	 * @param batch_size
+	 */
+	public void setBatchSize(int batch_size) {
+		if (batch_size < 1) {
+			throw new IllegalArgumentException("The batch size (" + batch_size + ") must be positive");
+		}
+		this.batch_size = batch_size;
+	}
+
+	public int getBatchSize() {
+		return batch_size;
+	}
+
+	/**
+	 * @return the number of instances currently idle in the pool
+	 */
+	public int getIdleCount() {
+		return idle.size();
+	}
+
+}
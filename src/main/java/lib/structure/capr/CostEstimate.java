@@ -0,0 +1,74 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+/**
+ * @author Jan Hoinka
+ *
+ * The predicted cost of folding a sequence and computing its profile, see
+ * <code>CostEstimator</code>.
+ */
+public final class CostEstimate {
+
+	private final int length;
+
+	private final int maximal_span;
+
+	private final Engine engine;
+
+	private final long bytes;
+
+	private final long operations;
+
+	private final long nanos;
+
+	CostEstimate(int length, int maximal_span, Engine engine, long bytes, long operations, long nanos) {
+		this.length = length;
+		this.maximal_span = maximal_span;
+		this.engine = engine;
+		this.bytes = bytes;
+		this.operations = operations;
+		this.nanos = nanos;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public int getMaximalSpan() {
+		return maximal_span;
+	}
+
+	public Engine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * @return the number of heap bytes allocated by a new instance for the fold and its profile
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return the number of elementary steps of the recursions and the profile
+	 */
+	public long getOperations() {
+		return operations;
+	}
+
+	/**
+	 * @return the predicted duration on a single thread in nanoseconds
+	 */
+	public long getNanos() {
+		return nanos;
+	}
+
+	@Override
+	public String toString() {
+		return "CostEstimate [length=" + length + ", maximal_span=" + maximal_span + ", engine=" + engine
+				+ ", bytes=" + bytes + ", operations=" + operations + ", nanos=" + nanos + "]";
+	}
+
+}
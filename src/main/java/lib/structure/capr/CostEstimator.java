@@ -0,0 +1,249 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author Jan Hoinka
+ *
+ * Predicts the memory and time of a fold from the sequence length <code>n</code>, the
+ * maximal span <code>W</code> and the engine, without folding.
+ *
+ * The memory follows from the layout of the tables: twelve banded tables of
+ * <code>(n+1)(W+2)</code> doubles, the pair types and the outer tables, plus the profile.
+ * Byte counts refer to the heap. Tables stored off the heap only contribute their row
+ * stamps, their cells are predicted separately by <code>estimateOffHeapBytes</code>.
+ * The time is modelled by the number of elementary steps of the recursions, i.e. for every
+ * cell the bifurcation points of its multi-loop variables and the interior loops it closes
+ * or is enclosed by, counted once for the inside, the outside and the profile pass. The
+ * duration of a step depends on the engine and the hardware, and can be measured with
+ * <code>calibrate</code>.
+ */
+public class CostEstimator {
+
+	/**
+	 * Number of inside and outside tables
+	 */
+	private static final int TABLES = 12;
+
+	/**
+	 * Nanoseconds per operation, indexed by the ordinal of the engine. The defaults were
+	 * measured with the exact <code>logsumexp</code> kernel on a single core of a commodity
+	 * server, for sequences of 100 to 2000 nucleotides, and vary by about 30% with the span.
+	 * Stored as the bits of doubles, so that calibrations are seen by estimates on other
+	 * threads.
+	 */
+	private final AtomicLongArray nanos_per_operation = new AtomicLongArray(new long[] { Double.doubleToLongBits(11.0), Double.doubleToLongBits(4.5) });
+
+	/**
+	 * @param length
+	 * @param maximal_span
+	 * @param engine
+	 * @return the predicted cost of folding a sequence of <code>length</code> nucleotides on
+	 * a new instance and computing its profile
+	 */
+	public CostEstimate estimate(int length, int maximal_span, Engine engine) {
+
+		return estimate(length, maximal_span, engine, TablePrecision.DOUBLE);
+
+	}
+
+	/**
+	 * @param length
+	 * @param maximal_span
+	 * @param engine
+	 * @param precision
+	 * @return the predicted cost of folding a sequence of <code>length</code> nucleotides on
+	 * a new instance storing its tables in <code>precision</code> and computing its profile
+	 */
+	public CostEstimate estimate(int length, int maximal_span, Engine engine, TablePrecision precision) {
+
+		return estimate(length, maximal_span, engine, precision, TableStorage.HEAP);
+
+	}
+
+	/**
+	 * @param length
+	 * @param maximal_span
+	 * @param engine
+	 * @param precision
+	 * @param storage
+	 * @return the predicted cost of folding a sequence of <code>length</code> nucleotides on
+	 * a new instance storing its tables in <code>precision</code> and <code>storage</code> and
+	 * computing its profile
+	 */
+	public CostEstimate estimate(int length, int maximal_span, Engine engine, TablePrecision precision, TableStorage storage) {
+
+		// float tables always fold in the log domain
+		Engine computed = precision == TablePrecision.FLOAT ? Engine.LOG : engine;
+
+		long operations = estimateOperations(length, maximal_span);
+		long nanos = (long) Math.ceil(operations * getNanosPerOperation(computed));
+		return new CostEstimate(length, maximal_span, computed, estimateBytes(length, maximal_span, computed, precision, storage), operations, nanos);
+
+	}
+
+	/**
+	 * @return the number of heap bytes allocated by a new instance for folding a sequence of
+	 * <code>length</code> nucleotides and computing its profile
+	 */
+	public static long estimateBytes(int length, int maximal_span, Engine engine) {
+
+		return estimateBytes(length, maximal_span, engine, TablePrecision.DOUBLE);
+
+	}
+
+	/**
+	 * @return the number of heap bytes allocated by a new instance storing its tables in
+	 * <code>precision</code> for folding a sequence of <code>length</code> nucleotides and
+	 * computing its profile
+	 */
+	public static long estimateBytes(int length, int maximal_span, Engine engine, TablePrecision precision) {
+
+		return estimateBytes(length, maximal_span, engine, precision, TableStorage.HEAP);
+
+	}
+
+	/**
+	 * @return the number of heap bytes allocated by a new instance storing its tables in
+	 * <code>precision</code> and <code>storage</code> for folding a sequence of
+	 * <code>length</code> nucleotides and computing its profile
+	 */
+	public static long estimateBytes(int length, int maximal_span, Engine engine, TablePrecision precision, TableStorage storage) {
+
+		long rows = length + 1L;
+
+		// row stamps of the banded tables, whose cells are only on the heap for HEAP
+		long bytes = TABLES * rows * Integer.BYTES;
+		if (storage == TableStorage.HEAP) {
+			bytes += estimateTableBytes(length, maximal_span, precision);
+
+			// the pair types are only cached alongside tables on the heap
+			bytes += rows * (maximal_span + 3L);
+		}
+
+		// outer tables and encoded sequence
+		bytes += 2 * rows * Double.BYTES + rows;
+
+		// scaling factors of the linear engine
+		if (engine == Engine.SCALED_LINEAR && precision == TablePrecision.DOUBLE) {
+			bytes += 2L * (Math.max(maximal_span, EnergyPar.MAXLOOP) + 3) * Double.BYTES;
+		}
+
+		// the profile
+		bytes += 5L * length * Double.BYTES;
+
+		return bytes;
+
+	}
+
+	/**
+	 * @return the number of bytes a new instance allocates outside of the heap, in direct
+	 * buffers or mapped files, for folding a sequence of <code>length</code> nucleotides
+	 */
+	public static long estimateOffHeapBytes(int length, int maximal_span, TablePrecision precision, TableStorage storage) {
+
+		return storage == TableStorage.HEAP ? 0 : estimateTableBytes(length, maximal_span, precision);
+
+	}
+
+	/**
+	 * The cells of the banded tables
+	 */
+	private static long estimateTableBytes(int length, int maximal_span, TablePrecision precision) {
+
+		int cell = precision == TablePrecision.FLOAT ? Float.BYTES : Double.BYTES;
+		return TABLES * (length + 1L) * (maximal_span + 2L) * cell;
+
+	}
+
+	/**
+	 * @return the number of elementary steps of the inside and outside recursions and of
+	 * the profile of a sequence of <code>length</code> nucleotides
+	 */
+	public static long estimateOperations(int length, int maximal_span) {
+
+		long operations = 0;
+		for (int d = EnergyPar.TURN; d <= Math.min(length, maximal_span + 1); d++) {
+
+			// the cells (i,i+d] computed by the recursions
+			long cells = d == EnergyPar.TURN ? length - d : length - d + 1;
+
+			// interior loops closed by, and enclosing, a base pair of span d
+			long inner = interiorLoops(Math.min(EnergyPar.MAXLOOP, d - EnergyPar.TURN - 2));
+			long outer = interiorLoops(Math.min(EnergyPar.MAXLOOP, maximal_span + 1 - d));
+
+			// bifurcation points of the inside and outside multi-loop variables
+			long bifurcations = d + 2L * Math.max(0, maximal_span - d);
+
+			// the profile visits the interior loops closed by each pair once more
+			operations += cells * (bifurcations + 2 * inner + outer);
+		}
+		return operations;
+
+	}
+
+	/**
+	 * The number of interior loops with at most <code>u</code> unpaired nucleotides
+	 */
+	private static long interiorLoops(int u) {
+		return u < 0 ? 0 : (u + 1L) * (u + 2L) / 2;
+	}
+
+	/**
+	 * @return the duration of an operation with <code>engine</code> in nanoseconds
+	 */
+	public double getNanosPerOperation(Engine engine) {
+		return Double.longBitsToDouble(nanos_per_operation.get(engine.ordinal()));
+	}
+
+	public void setNanosPerOperation(Engine engine, double nanos) {
+		if (!(nanos > 0.0)) {
+			throw new IllegalArgumentException("The duration of an operation (" + nanos + ") must be positive");
+		}
+		nanos_per_operation.set(engine.ordinal(), Double.doubleToLongBits(nanos));
+	}
+
+	/**
+	 * Measures the duration of an operation of the engine of <code>capr</code> on the current
+	 * hardware by folding a random sequence twice, the first time to warm up, and uses it for
+	 * all subsequent estimates of that engine. Instances with float tables fold, and are
+	 * hence calibrated, with <code>Engine.LOG</code> whichever engine they are configured
+	 * with. Since estimates model serial folds, <code>capr</code> must not fold in parallel.
+	 * @param capr the instance to fold with, configured as the instances to estimate
+	 * @param length the length of the random sequence, a few hundred nucleotides suffice
+	 * @param maximal_span
+	 * @return the measured duration of an operation in nanoseconds
+	 * @throws IllegalArgumentException if <code>capr</code> folds in parallel
+	 */
+	public double calibrate(CapR capr, int length, int maximal_span) {
+
+		if (capr.getPool() != null) {
+			throw new IllegalArgumentException("Calibrating requires an instance folding serially, but it folds in parallel on " + capr.getPool());
+		}
+
+		Random random = new Random(length);
+		byte[] sequence = new byte[length];
+		for (int x = 0; x < length; x++) {
+			sequence[x] = CapR.NUCLEOTIDES[1 + random.nextInt(4)];
+		}
+
+		long nanos = 0;
+		for (int round = 0; round < 2; round++) {
+			long start = System.nanoTime();
+			capr.ComputeStructuralProfile(sequence, maximal_span);
+			capr.getStructuralProfile();
+			nanos = System.nanoTime() - start;
+		}
+
+		double per_operation = (double) nanos / Math.max(1, estimateOperations(length, maximal_span));
+		// the engine the fold actually ran with
+		setNanosPerOperation(capr._computed_engine, per_operation);
+		return per_operation;
+
+	}
+
+}
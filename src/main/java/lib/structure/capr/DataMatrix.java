@@ -11,7 +11,11 @@ import java.util.ArrayList;
  * This class implements a two dimensional bit array based on a one dimensional bit array.
  * The indices are transparently translated from 2D to 1D. This allows for space efficient
  * storage of binary data.
+ *
+ * @deprecated CapR stores its tables in <code>BandedMatrix</code> and no longer uses this
+ * class, which is only kept for existing external callers.
  */
+@Deprecated
 public class DataMatrix<T>{
 
 	/**
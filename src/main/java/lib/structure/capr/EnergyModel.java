@@ -0,0 +1,297 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author Jan Hoinka
+ *
+ * The energy parameters of CapR at a given temperature, converted to the units used by
+ * the recursions: <code>-E/kT</code> for the log domain, and the Boltzmann factors
+ * <code>exp(-E/kT)</code> for the scaled linear domain.
+ *
+ * Instances are immutable after construction and can be shared by any number of CapR
+ * instances and threads. Building a model evaluates all loop tables once, including
+ * the roughly 40k entries of <code>int22</code>, hence models should be reused rather
+ * than created per fold. <code>getDefault</code> returns the shared model at 37 degrees
+ * Celsius used by <code>new CapR()</code>, and <code>forTemperature</code> the shared model
+ * at any other temperature.
+ *
+ * The temperature only enters through <code>kT</code>: all free energies, including the
+ * coefficient <code>lxc37</code> of the logarithmic loop extrapolation, are the 37 degree
+ * values of the Vienna RNA package 1.8.5, which ships no enthalpies. A model at another
+ * temperature hence rescales the Boltzmann factors of the 37 degree energies, rather than
+ * computing <code>dG(T) = dH - T dS</code>. Its profiles show how the ensemble sharpens or
+ * flattens with <code>kT</code>, but are not physical melting profiles.
+ *
+ * The tables indexed by pair types and nucleotides are stored as flat arrays in row-major
+ * order, i.e. the last index varies fastest, so that a lookup in the innermost loops of
+ * the recursions is a single array access at an offset computed by the <code>*Index</code>
+ * methods, instead of a chain of dependent loads through nested arrays.
+ */
+public final class EnergyModel {
+
+	private static final EnergyModel DEFAULT = new EnergyModel(EnergyPar.temperature);
+
+	/**
+	 * Maximal number of models kept by <code>forTemperature</code>, each of which holds
+	 * about 0.8 MB of tables
+	 */
+	private static final int MAX_CACHED_MODELS = 64;
+
+	/**
+	 * The models of <code>forTemperature</code>, least recently used first
+	 */
+	private static final Map<Double, EnergyModel> CACHE = new LinkedHashMap<Double, EnergyModel>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Double, EnergyModel> eldest) {
+			return size() > MAX_CACHED_MODELS;
+		}
+	};
+
+	/**
+	 * The temperature in degrees Celsius
+	 */
+	final double temperature;
+
+	/**
+	 * <code>(temperature + K0) * GASCONST</code>, in cal/mol
+	 */
+	final double kT;
+
+	// dimensions of the flattened tables
+	static final int STACK_SIZE = 7 * 7;
+	static final int MISMATCH_SIZE = 7 * 5 * 5;
+	static final int DANGLE_SIZE = 8 * 5;
+	static final int INT11_SIZE = 8 * 8 * 5 * 5;
+	static final int INT21_SIZE = 8 * 8 * 5 * 5 * 5;
+	static final int INT22_SIZE = 8 * 8 * 5 * 5 * 5 * 5;
+
+	// energies in units of -kT
+	final double[] hairpin = new double[31];
+	final double[] mismatchH = new double[MISMATCH_SIZE];
+	final double[] mismatchI = new double[MISMATCH_SIZE];
+	final double[] stack = new double[STACK_SIZE];
+	final double[] bulge = new double[31];
+	final double TermAU;
+	final double[] int11 = new double[INT11_SIZE];
+	final double[] int21 = new double[INT21_SIZE];
+	final double[] int22 = new double[INT22_SIZE];
+	final double[] internal = new double[31];
+	final double MLclosing;
+	final double MLintern;
+	final double MLbase;
+	final double[] dangle5 = new double[DANGLE_SIZE];
+	final double[] dangle3 = new double[DANGLE_SIZE];
+	final double[] ninio = new double[EnergyPar.MAXLOOP + 1];
+
+	// Boltzmann factors exp(-E/kT) of the energies above
+	final double[] exphairpin = new double[31];
+	final double[] expmismatchH = new double[MISMATCH_SIZE];
+	final double[] expmismatchI = new double[MISMATCH_SIZE];
+	final double[] expstack = new double[STACK_SIZE];
+	final double[] expbulge = new double[31];
+	final double expTermAU;
+	final double[] expint11 = new double[INT11_SIZE];
+	final double[] expint21 = new double[INT21_SIZE];
+	final double[] expint22 = new double[INT22_SIZE];
+	final double[] expinternal = new double[31];
+	final double expMLclosing;
+	final double expMLintern;
+	final double expMLbase;
+	final double[] expdangle5 = new double[DANGLE_SIZE];
+	final double[] expdangle3 = new double[DANGLE_SIZE];
+	final double[] expninio = new double[EnergyPar.MAXLOOP + 1];
+
+	/**
+	 * Builds the energy model for the given temperature, by rescaling the free energies at
+	 * 37 degrees Celsius with <code>1/kT</code>, see above
+	 * @param temperature in degrees Celsius
+	 */
+	public EnergyModel(double temperature) {
+		this(temperature, LoopParameters.getDefault());
+	}
+
+	/**
+	 * Builds the energy model for the given temperature, with the energies of small
+	 * internal loops taken from <code>loops</code>
+	 * @param temperature in degrees Celsius
+	 * @param loops
+	 */
+	public EnergyModel(double temperature, LoopParameters loops) {
+
+		this.temperature = temperature;
+		this.kT = (temperature + EnergyPar.K0) * EnergyPar.GASCONST;
+
+		MLclosing = -EnergyPar.ML_closing37 * 10 / kT;
+		MLintern = -EnergyPar.ML_intern37 * 10. / kT;
+		MLbase = -EnergyPar.ML_BASE37 * 10. / kT;
+		TermAU = -EnergyPar.TerminalAU * 10 / kT;
+
+		for (int i = 0; i <= 30; i++) {
+			hairpin[i] = -EnergyPar.hairpin37[i] * 10. / kT;
+			bulge[i] = -EnergyPar.bulge37[i] * 10. / kT;
+			internal[i] = -EnergyPar.internal_loop37[i] * 10. / kT;
+		}
+
+		for (int i = 0; i < 7; i++) {
+			for (int j = 0; j < 5; j++) {
+				for (int k = 0; k < 5; k++) {
+					mismatchI[mismatchIndex(i, j, k)] = -EnergyPar.mismatchI37[i][j][k] * 10.0 / kT;
+					mismatchH[mismatchIndex(i, j, k)] = -EnergyPar.mismatchH37[i][j][k] * 10.0 / kT;
+				}
+			}
+
+			for (int j = 0; j < 7; j++) {
+				stack[stackIndex(i, j)] = -EnergyPar.stack37[i][j] * 10. / kT;
+			}
+
+			for (int j = 0; j <= 4; j++) {
+				dangle5[dangleIndex(i, j)] = -EnergyPar.dangle5_37[i][j] * 10. / kT;
+				dangle3[dangleIndex(i, j)] = -EnergyPar.dangle3_37[i][j] * 10. / kT;
+				if (i > 2) {
+					dangle3[dangleIndex(i, j)] += TermAU;
+				}
+			}
+		}
+
+		// the loop parameters share the layout of the flattened tables
+		for (int i = 0; i < INT11_SIZE; i++) {
+			int11[i] = -loops.int11[i] * 10. / kT;
+		}
+		for (int i = 0; i < INT21_SIZE; i++) {
+			int21[i] = -loops.int21[i] * 10. / kT;
+		}
+		for (int i = 0; i < INT22_SIZE; i++) {
+			int22[i] = -loops.int22[i] * 10. / kT;
+		}
+
+		for (int i = 0; i <= EnergyPar.MAXLOOP; i++) {
+			ninio[i] = -Math.min(EnergyPar.MAX_NINIO, i * EnergyPar.F_ninio37) * 10 / kT;
+		}
+
+		// Boltzmann factors
+		expMLclosing = Math.exp(MLclosing);
+		expMLintern = Math.exp(MLintern);
+		expMLbase = Math.exp(MLbase);
+		expTermAU = Math.exp(TermAU);
+
+		for (int i = 0; i <= 30; i++) {
+			exphairpin[i] = Math.exp(hairpin[i]);
+			expbulge[i] = Math.exp(bulge[i]);
+			expinternal[i] = Math.exp(internal[i]);
+		}
+
+		exp(mismatchI, expmismatchI);
+		exp(mismatchH, expmismatchH);
+		exp(stack, expstack);
+		exp(dangle5, expdangle5);
+		exp(dangle3, expdangle3);
+		exp(int11, expint11);
+		exp(int21, expint21);
+		exp(int22, expint22);
+
+		for (int i = 0; i <= EnergyPar.MAXLOOP; i++) {
+			expninio[i] = Math.exp(ninio[i]);
+		}
+	}
+
+	/**
+	 * Stores the Boltzmann factors of <code>energies</code> in <code>factors</code>
+	 */
+	private static void exp(double[] energies, double[] factors) {
+		for (int i = 0; i < energies.length; i++) {
+			factors[i] = Math.exp(energies[i]);
+		}
+	}
+
+	/**
+	 * @return the offset of <code>stack[type][type2]</code>
+	 */
+	static int stackIndex(int type, int type2) {
+		return type * 7 + type2;
+	}
+
+	/**
+	 * @return the offset of <code>mismatchH[type][a][b]</code> and <code>mismatchI[type][a][b]</code>
+	 */
+	static int mismatchIndex(int type, int a, int b) {
+		return (type * 5 + a) * 5 + b;
+	}
+
+	/**
+	 * @return the offset of <code>dangle5[type][a]</code> and <code>dangle3[type][a]</code>
+	 */
+	static int dangleIndex(int type, int a) {
+		return type * 5 + a;
+	}
+
+	/**
+	 * @return the offset of <code>int11[type][type2][a][b]</code>
+	 */
+	static int int11Index(int type, int type2, int a, int b) {
+		return ((type * 8 + type2) * 5 + a) * 5 + b;
+	}
+
+	/**
+	 * @return the offset of <code>int21[type][type2][a][b][c]</code>
+	 */
+	static int int21Index(int type, int type2, int a, int b, int c) {
+		return (((type * 8 + type2) * 5 + a) * 5 + b) * 5 + c;
+	}
+
+	/**
+	 * @return the offset of <code>int22[type][type2][a][b][c][d]</code>
+	 */
+	static int int22Index(int type, int type2, int a, int b, int c, int d) {
+		return ((((type * 8 + type2) * 5 + a) * 5 + b) * 5 + c) * 5 + d;
+	}
+
+	/**
+	 * @return the shared model at the default temperature of 37 degrees Celsius
+	 */
+	public static EnergyModel getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Returns the shared model at <code>temperature</code>, building it on first use. The
+	 * most recently used models are cached, so that folds at a set of temperatures, e.g.
+	 * of a sweep, build each model once only. Like the constructor, the model rescales
+	 * the free energies at 37 degrees Celsius with <code>1/kT</code>.
+	 * @param temperature in degrees Celsius
+	 */
+	public static EnergyModel forTemperature(double temperature) {
+		if (temperature == DEFAULT.temperature) {
+			return DEFAULT;
+		}
+		synchronized (CACHE) {
+			EnergyModel model = CACHE.get(temperature);
+			if (model == null) {
+				model = new EnergyModel(temperature);
+				CACHE.put(temperature, model);
+			}
+			return model;
+		}
+	}
+
+	/**
+	 * @return the temperature in degrees Celsius
+	 */
+	public double getTemperature() {
+		return temperature;
+	}
+
+	/**
+	 * @return the thermal energy <code>kT</code> in cal/mol
+	 */
+	public double getKT() {
+		return kT;
+	}
+
+}
@@ -18,9 +18,9 @@ public  final class EnergyPar {
 	public final static int TURN = 3; 
 	public final static int MAXLOOP = 30;
 
-	public static int temperature = 37;
-	public static double kT = (temperature+K0)*GASCONST;
-	public static double lxc37=107.856; /* parameter for logarithmic loop energy extrapolation*/
+	public final static int temperature = 37;
+	public final static double kT = (temperature+K0)*GASCONST;
+	public final static double lxc37=107.856; /* parameter for logarithmic loop energy extrapolation*/
 	
 	public static int[][] BP_pair = /* @  A  C  G  U*/
 									{{ 0, 0, 0, 0, 0},
@@ -90,7 +90,7 @@ public  final class EnergyPar {
 			       500, 510, 519, 527, 534, 541, 548, 554, 560, 565,
 				   571, 576, 580, 585, 589, 594, 598, 602, 605, 609};
 	
-	public static int TerminalAU = 50;
+	public final static int TerminalAU = 50;
 
 	public static int[] internal_loop37 = {
 	  INF, INF, 410, 510, 170, 180, 200, 220, 230, 240, 250,
@@ -138,8 +138,8 @@ public  final class EnergyPar {
 		   {   0,   70,   70,   70,    0}},/* U@  UA  UC  UG  UU */
 		};	
 	
-	public static int ML_closing37 = 340;
-	public static int ML_intern37 = 40;
+	public final static int ML_closing37 = 340;
+	public final static int ML_intern37 = 40;
 	
 	public static int[][] dangle5_37=
 		{/*   @     A     C     G     U   */
@@ -166,9 +166,9 @@ public  final class EnergyPar {
 	   {   0,    0,     0,    0,   0}   /*  @ */
 	};
 	
-	public static int ML_BASE37 = 0;
+	public final static int ML_BASE37 = 0;
 
-	public static int MAX_NINIO = 300;
+	public final static int MAX_NINIO = 300;
 	
-	public static int F_ninio37 = 50;
+	public final static int F_ninio37 = 50;
 }
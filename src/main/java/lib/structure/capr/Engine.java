@@ -0,0 +1,29 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+/**
+ * @author Jan Hoinka
+ *
+ * The partition function engines available to CapR. The engine is selected per
+ * instance via <code>CapR.setEngine</code> and determines in which domain the
+ * inside and outside tables are computed and stored.
+ */
+public enum Engine {
+
+	/**
+	 * All tables hold log-space partition functions which are accumulated with
+	 * <code>logsumexp</code>. This is the original CapR algorithm and the default.
+	 */
+	LOG,
+
+	/**
+	 * All tables hold Boltzmann weights in the linear domain, scaled by a constant
+	 * factor per nucleotide of the covered subsequence as done by the Vienna RNA package.
+	 * The recursions reduce to multiply-adds. Should the scaled weights still leave
+	 * the range of a double, the fold is repeated with a corrected scaling factor.
+	 */
+	SCALED_LINEAR
+
+}
@@ -0,0 +1,70 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import java.lang.reflect.Field;
+import java.util.function.Supplier;
+
+/**
+ * @author Jan Hoinka
+ *
+ * Creates the Java Flight Recorder events of CapR, such as <code>FoldEvent</code>. The
+ * events are declared as interfaces, and implemented by subclasses of
+ * <code>jdk.jfr.Event</code> in <code>src/main/jfr</code>, which are only compiled on JDK 11
+ * or newer (profile <code>jfr</code>). The remaining sources therefore build with any Java 8
+ * compiler, including <code>--release 8</code>. The implementations are only loaded if both
+ * they and the <code>jdk.jfr</code> API, part of Java 8 runtimes as of update 262, are
+ * present. Whether an event is recorded is then decided by the settings of the running
+ * recordings, which makes disabled events practically free.
+ */
+public final class FlightRecording {
+
+	/**
+	 * True if the runtime provides the <code>jdk.jfr</code> API
+	 */
+	public static final boolean AVAILABLE = isAvailable();
+
+	private FlightRecording() {
+	}
+
+	private static boolean isAvailable() {
+
+		try {
+			Class.forName("jdk.jfr.Event", false, FlightRecording.class.getClassLoader());
+			return true;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+
+	}
+
+	/**
+	 * @param type the interface of the event
+	 * @param implementation the name of the class implementing <code>type</code> with a
+	 * <code>jdk.jfr.Event</code>, which provides its constructor as the static
+	 * <code>Supplier</code> <code>CONSTRUCTOR</code>
+	 * @return a factory of new events, which returns null if either the runtime lacks the
+	 * <code>jdk.jfr</code> API or the implementation was not compiled
+	 */
+	public static <T> Supplier<T> events(Class<T> type, String implementation) {
+
+		if (!AVAILABLE) {
+			return () -> null;
+		}
+
+		// the constructor is only looked up reflectively once, creating events must not use
+		// reflection to keep disabled events free of allocations
+		try {
+			Field constructor = Class.forName(implementation, true, type.getClassLoader()).getDeclaredField("CONSTRUCTOR");
+			constructor.setAccessible(true);
+			@SuppressWarnings("unchecked")
+			Supplier<T> events = (Supplier<T>) constructor.get(null);
+			return events;
+		} catch (ReflectiveOperationException | LinkageError | ClassCastException | SecurityException e) {
+			return () -> null;
+		}
+
+	}
+
+}
@@ -0,0 +1,136 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import java.util.Arrays;
+
+/**
+ * @author Jan Hoinka
+ *
+ * A <code>BandedMatrix</code> storing its cells in single precision, which halves the
+ * memory of the tables and the bandwidth needed to stream them. Values are rounded to the
+ * nearest float when written and widened to double when read, so that all arithmetic on
+ * them is done in double precision. Used by <code>TablePrecision.FLOAT</code>.
+ */
+public class FloatBandedMatrix extends BandedMatrix {
+
+	/**
+	 * The array storing the matrix data in row major order.
+	 */
+	private float[] data = new float[0];
+
+	public FloatBandedMatrix(){
+
+		super();
+
+	}
+
+	/**
+	 * Initialize the matrix in a "row major" manner. All values are initially set to 0.
+	 * @param rows number of rows
+	 * @param cols number of columns
+	 */
+	public FloatBandedMatrix(int rows, int cols){
+
+		super();
+
+		if (rows <= 0 || cols <= 0){
+			throw new IndexOutOfBoundsException("The number of rows (" + rows + ") or columns (" + cols + ") is invalid");
+		}
+
+		reshape(rows, cols);
+
+	}
+
+	@Override
+	public void set(int row, int col, double value){
+
+		if (stamps[row] != epoch){
+			Arrays.fill(data, cols * row, cols * row + cols, (float) default_value);
+			stamps[row] = epoch;
+		}
+
+		data[cols * row + col] = (float) value;
+
+	}
+
+	@Override
+	public double get(int row, int col){
+
+		return stamps[row] == epoch ? data[cols * row + col] : default_value;
+
+	}
+
+	@Override
+	public void materialize(){
+
+		for (int row = 0; row < rows; row++){
+			if (stamps[row] != epoch){
+				Arrays.fill(data, cols * row, cols * row + cols, (float) default_value);
+				stamps[row] = epoch;
+			}
+		}
+
+	}
+
+	@Override
+	public void copyRowsTo(int from, int to, double[] buffer, int offset){
+
+		for (int row = from; row < to; row++, offset += cols){
+			if (stamps[row] == epoch){
+				for (int col = 0; col < cols; col++){
+					buffer[offset + col] = data[cols * row + col];
+				}
+			} else {
+				Arrays.fill(buffer, offset, offset + cols, default_value);
+			}
+		}
+
+	}
+
+	@Override
+	public void copyRowsFrom(int from, int to, double[] buffer, int offset){
+
+		for (int row = from; row < to; row++, offset += cols){
+			for (int col = 0; col < cols; col++){
+				data[cols * row + col] = (float) buffer[offset + col];
+			}
+			stamps[row] = epoch;
+		}
+
+	}
+
+	@Override
+	public long getAllocatedBytes(){
+
+		return 4L * data.length + 4L * stamps.length;
+
+	}
+
+	@Override
+	public void release(){
+
+		super.release();
+		data = new float[0];
+
+	}
+
+	@Override
+	public BandedMatrix reshape(int rows, int cols){
+
+		int cells = heapCells(rows, cols);
+		if (data.length < cells){
+			data = Arrays.copyOf(data, cells);
+		}
+		if (stamps.length < rows){
+			stamps = Arrays.copyOf(stamps, rows);
+		}
+
+		this.rows = rows;
+		this.cols = cols;
+
+		return this;
+	}
+
+}
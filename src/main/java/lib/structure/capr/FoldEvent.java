@@ -0,0 +1,28 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import java.util.function.Supplier;
+
+/**
+ * @author Jan Hoinka
+ *
+ * Flight recorder event spanning <code>CapR.ComputeStructuralProfile</code>, i.e. the
+ * initialization and the inside and outside recursions of a fold.
+ */
+interface FoldEvent {
+
+	/**
+	 * Creates new events, or null if flight recorder events are not available
+	 */
+	Supplier<FoldEvent> FACTORY = FlightRecording.events(FoldEvent.class, "lib.structure.capr.JfrFoldEvent");
+
+	void begin();
+
+	/**
+	 * Records the event, if enabled, with the state of <code>capr</code> after the fold
+	 */
+	void commit(CapR capr);
+
+}
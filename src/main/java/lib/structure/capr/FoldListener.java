@@ -0,0 +1,33 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+/**
+ * @author Jan Hoinka
+ *
+ * Receives the timings and statistics of the folds of the CapR instances it is attached
+ * to via <code>CapR.setFoldListener</code>. All calls are made on the thread folding, after
+ * the phase completed, so that a listener shared by several instances, e.g. those of a
+ * <code>CapRPool</code>, is called concurrently and must be thread-safe. Listeners should
+ * return quickly, as they delay the fold.
+ */
+public interface FoldListener {
+
+	/**
+	 * Called once per fold for each of the phases <code>INITIALIZE</code>, <code>INSIDE</code>
+	 * and <code>OUTSIDE</code>, and once per computed profile for each of the remaining phases.
+	 * Sequences folded at several temperatures are initialized only once.
+	 * @param phase
+	 * @param length the length of the folded sequence
+	 * @param nanos the duration of the phase in nanoseconds
+	 */
+	void onPhase(FoldPhase phase, int length, long nanos);
+
+	/**
+	 * Called once per fold after the outside recursions completed
+	 * @param statistics
+	 */
+	void onFold(FoldStatistics statistics);
+
+}
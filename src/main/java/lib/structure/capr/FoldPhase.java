@@ -0,0 +1,46 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+/**
+ * @author Jan Hoinka
+ *
+ * The phases of a fold whose durations are reported to a <code>FoldListener</code>.
+ * The first three phases are run by <code>CapR.ComputeStructuralProfile</code>, the
+ * remaining ones by <code>CapR.getStructuralProfile</code>.
+ */
+public enum FoldPhase {
+
+	/**
+	 * Encoding the sequence, reshaping the tables and looking up the pair types
+	 */
+	INITIALIZE,
+
+	/**
+	 * The inside recursions, including all folds repeated by the scaled linear engine
+	 * with a corrected scaling factor
+	 */
+	INSIDE,
+
+	/**
+	 * The outside recursions
+	 */
+	OUTSIDE,
+
+	/**
+	 * The hairpin probabilities of the profile
+	 */
+	HAIRPIN,
+
+	/**
+	 * The bulge and internal loop probabilities of the profile
+	 */
+	BULGE_AND_INTERNAL,
+
+	/**
+	 * The multi-loop and exterior probabilities of the profile
+	 */
+	MULTI_AND_EXTERIOR
+
+}
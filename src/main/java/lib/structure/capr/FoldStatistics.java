@@ -0,0 +1,94 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+/**
+ * @author Jan Hoinka
+ *
+ * The work done by a single fold, as reported to <code>FoldListener.onFold</code>.
+ */
+public final class FoldStatistics {
+
+	private final int length;
+
+	private final int maximal_span;
+
+	private final Engine engine;
+
+	private final long cells;
+
+	private final long empty_cells;
+
+	private final long logsumexp_calls;
+
+	private final long workspace_bytes;
+
+	FoldStatistics(int length, int maximal_span, Engine engine, long cells, long empty_cells, long logsumexp_calls, long workspace_bytes) {
+		this.length = length;
+		this.maximal_span = maximal_span;
+		this.engine = engine;
+		this.cells = cells;
+		this.empty_cells = empty_cells;
+		this.logsumexp_calls = logsumexp_calls;
+		this.workspace_bytes = workspace_bytes;
+	}
+
+	/**
+	 * @return the length of the folded sequence
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	public int getMaximalSpan() {
+		return maximal_span;
+	}
+
+	/**
+	 * @return the engine the tables were computed with, which differs from the selected
+	 * engine if the scaled linear engine fell back to the log domain
+	 */
+	public Engine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * @return the number of cells of the inside and outside tables computed by the fold
+	 */
+	public long getCells() {
+		return cells;
+	}
+
+	/**
+	 * @return the number of computed cells holding the value of an impossible state,
+	 * <code>-INF</code> in the log domain and 0 in the linear domain, whose contributions
+	 * are skipped by all recursions depending on them
+	 */
+	public long getEmptyCells() {
+		return empty_cells;
+	}
+
+	/**
+	 * @return the number of <code>logsumexp</code> evaluations of the inside and outside
+	 * recursions, 0 for folds computed in the linear domain
+	 */
+	public long getLogSumExpCalls() {
+		return logsumexp_calls;
+	}
+
+	/**
+	 * @return the number of bytes held by the workspace of the folding instance after the fold
+	 */
+	public long getWorkspaceBytes() {
+		return workspace_bytes;
+	}
+
+	@Override
+	public String toString() {
+		return "FoldStatistics [length=" + length + ", maximal_span=" + maximal_span + ", engine=" + engine
+				+ ", cells=" + cells + ", empty_cells=" + empty_cells + ", logsumexp_calls=" + logsumexp_calls
+				+ ", workspace_bytes=" + workspace_bytes + "]";
+	}
+
+}
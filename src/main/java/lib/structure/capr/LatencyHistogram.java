@@ -0,0 +1,163 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Jan Hoinka
+ *
+ * A lock-free histogram of durations in nanoseconds. Values are counted in buckets whose
+ * width grows with their magnitude, eight buckets per power of two, so that any recorded
+ * value is reproduced by the bucket it falls into within 12.5%, independent of whether
+ * it is a matter of microseconds or minutes. Recording is safe from any number of threads.
+ */
+public final class LatencyHistogram {
+
+	/**
+	 * Number of buckets per power of two, as a power of two itself
+	 */
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * Values below <code>SUB_BUCKETS</code> are counted exactly, larger ones in
+	 * <code>SUB_BUCKETS</code> buckets per power of two up to <code>2^63</code>
+	 */
+	private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	private final LongAdder count = new LongAdder();
+
+	private final LongAdder sum = new LongAdder();
+
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Adds a duration to the histogram. Negative durations are counted as 0.
+	 * @param nanos
+	 */
+	public void record(long nanos) {
+
+		long value = Math.max(0, nanos);
+		counts.incrementAndGet(bucket(value));
+		count.increment();
+		sum.add(value);
+		max.accumulate(value);
+
+	}
+
+	/**
+	 * @return the number of recorded durations
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @return the mean of all recorded durations in nanoseconds, 0 if there are none
+	 */
+	public double getMean() {
+		long n = count.sum();
+		return n == 0 ? 0.0 : (double) sum.sum() / n;
+	}
+
+	/**
+	 * @return the longest recorded duration in nanoseconds
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @param quantile in <code>[0,1]</code>
+	 * @return the upper bound, in nanoseconds, of the bucket holding the given quantile of
+	 * all recorded durations, but at most the longest one, 0 if there are none
+	 */
+	public long getQuantile(double quantile) {
+
+		if (quantile < 0.0 || quantile > 1.0) {
+			throw new IllegalArgumentException("The quantile (" + quantile + ") must be within [0,1]");
+		}
+
+		long[] snapshot = new long[BUCKETS];
+		long total = 0;
+		for (int b = 0; b < BUCKETS; b++) {
+			snapshot[b] = counts.get(b);
+			total += snapshot[b];
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(quantile * total));
+		long seen = 0;
+		for (int b = 0; b < BUCKETS; b++) {
+			seen += snapshot[b];
+			if (seen >= rank) {
+				return Math.min(upperBound(b), max.get());
+			}
+		}
+		return max.get();
+
+	}
+
+	/**
+	 * @return the count, mean, median, 90th, 99th percentile and maximum in microseconds
+	 */
+	public LatencySummary getSummary() {
+
+		return new LatencySummary(getCount(), getMean() / 1e3, getQuantile(0.5) / 1e3,
+				getQuantile(0.9) / 1e3, getQuantile(0.99) / 1e3, getMax() / 1e3);
+
+	}
+
+	/**
+	 * Discards all recorded durations. Durations recorded concurrently may or may not be kept.
+	 */
+	public void reset() {
+
+		for (int b = 0; b < BUCKETS; b++) {
+			counts.set(b, 0);
+		}
+		count.reset();
+		sum.reset();
+		max.reset();
+
+	}
+
+	/**
+	 * The bucket of a non-negative value, values of <code>[8*2^e, 16*2^e)</code> are split into
+	 * eight buckets of width <code>2^e</code>
+	 */
+	static int bucket(long value) {
+
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		int sub_bucket = (int) (value >>> exponent) - SUB_BUCKETS;
+		return SUB_BUCKETS + exponent * SUB_BUCKETS + sub_bucket;
+
+	}
+
+	/**
+	 * The largest value of a bucket
+	 */
+	static long upperBound(int bucket) {
+
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+		long sub_bucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+		long upper = ((SUB_BUCKETS + sub_bucket + 1) << exponent) - 1;
+		return upper < 0 ? Long.MAX_VALUE : upper;
+
+	}
+
+}
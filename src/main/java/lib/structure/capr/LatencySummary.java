@@ -0,0 +1,67 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * @author Jan Hoinka
+ *
+ * A snapshot of a <code>LatencyHistogram</code> in microseconds, exposed as composite data
+ * by <code>CapRMetricsMXBean</code>.
+ */
+public final class LatencySummary {
+
+	private final long count;
+
+	private final double mean;
+
+	private final double median;
+
+	private final double p90;
+
+	private final double p99;
+
+	private final double max;
+
+	@ConstructorProperties({ "count", "mean", "median", "p90", "p99", "max" })
+	public LatencySummary(long count, double mean, double median, double p90, double p99, double max) {
+		this.count = count;
+		this.mean = mean;
+		this.median = median;
+		this.p90 = p90;
+		this.p99 = p99;
+		this.max = max;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	public double getMedian() {
+		return median;
+	}
+
+	public double getP90() {
+		return p90;
+	}
+
+	public double getP99() {
+		return p99;
+	}
+
+	public double getMax() {
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%d mean=%.1fus median=%.1fus p90=%.1fus p99=%.1fus max=%.1fus", count, mean, median, p90, p99, max);
+	}
+
+}
@@ -0,0 +1,115 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+/**
+ * @author Jan Hoinka
+ *
+ * The kernels available to CapR for computing <code>log(exp(x) + exp(y))</code>, which
+ * is evaluated for every accumulation of the inside, outside and log-sum bulge/internal
+ * passes. The kernel is selected per instance via <code>CapR.setLogSumExp</code>.
+ */
+public enum LogSumExp {
+
+	/**
+	 * The exact kernel, computing <code>max + log(exp(min - max) + 1)</code> with
+	 * <code>Math.exp</code> and <code>Math.log</code>. This is the default.
+	 */
+	EXACT {
+		@Override
+		public double apply(double x, double y) {
+			return x > y ? x + Math.log(Math.exp(y - x) + 1.0) : y + Math.log(Math.exp(x - y) + 1.0);
+		}
+	},
+
+	/**
+	 * Evaluates <code>max + log1p(exp(-d))</code> with <code>d = |x - y|</code> by piecewise
+	 * cubic Hermite interpolation over a table with <code>FAST_STEPS</code> knots per unit.
+	 * For <code>d &lt; FAST_CUTOFF</code> the absolute error is below <code>5e-9</code>,
+	 * beyond the cutoff the correction term is dropped, which introduces an absolute error
+	 * of at most <code>log1p(exp(-FAST_CUTOFF)) &lt; 2.4e-16</code>.
+	 */
+	FAST {
+		@Override
+		public double apply(double x, double y) {
+
+			double max;
+			double d;
+			if (x > y) {
+				max = x;
+				d = x - y;
+			} else {
+				max = y;
+				d = y - x;
+			}
+
+			if (d >= FAST_CUTOFF) {
+				return max;
+			}
+
+			double t = d * FAST_STEPS;
+			int k = (int) t;
+			double u = t - k;
+			int c = k << 2;
+
+			return max + (FAST_TABLE[c] + u * (FAST_TABLE[c + 1] + u * (FAST_TABLE[c + 2] + u * FAST_TABLE[c + 3])));
+		}
+	};
+
+	/**
+	 * Number of interpolation intervals per unit of <code>d</code>
+	 */
+	private static final int FAST_STEPS = 16;
+
+	/**
+	 * Distance beyond which <code>log1p(exp(-d))</code> is treated as zero
+	 */
+	private static final double FAST_CUTOFF = 36.0;
+
+	/**
+	 * Cubic polynomial coefficients <code>c0,c1,c2,c3</code> for every interval, in the
+	 * local coordinate <code>u</code> in <code>[0,1)</code>
+	 */
+	private static final double[] FAST_TABLE = createFastTable();
+
+	/**
+	 * Computes <code>log(exp(x) + exp(y))</code>
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	public abstract double apply(double x, double y);
+
+	/**
+	 * Builds the Hermite coefficients of <code>f(d) = log1p(exp(-d))</code>
+	 * from the function values and derivatives at the knots.
+	 */
+	private static double[] createFastTable() {
+
+		int intervals = (int) (FAST_CUTOFF * FAST_STEPS) + 1;
+		double h = 1.0 / FAST_STEPS;
+		double[] table = new double[4 * intervals];
+
+		for (int k = 0; k < intervals; k++) {
+
+			double d0 = k * h;
+			double d1 = (k + 1) * h;
+
+			double f0 = Math.log1p(Math.exp(-d0));
+			double f1 = Math.log1p(Math.exp(-d1));
+
+			// derivatives scaled to the unit interval
+			double m0 = -h / (1.0 + Math.exp(d0));
+			double m1 = -h / (1.0 + Math.exp(d1));
+
+			table[4 * k] = f0;
+			table[4 * k + 1] = m0;
+			table[4 * k + 2] = -3 * f0 - 2 * m0 + 3 * f1 - m1;
+			table[4 * k + 3] = 2 * f0 + m0 - 2 * f1 + m1;
+		}
+
+		return table;
+	}
+
+}
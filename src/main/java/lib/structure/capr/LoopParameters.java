@@ -0,0 +1,283 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * @author Jan Hoinka
+ *
+ * The energies of the small internal loops <code>int11</code>, <code>int21</code> and
+ * <code>int22</code> in dcal/mol, flattened in the layout of <code>EnergyModel</code>.
+ *
+ * The tables of the Vienna RNA package are distributed as nested C array initializers,
+ * see <code>capR_int*_37.txt</code>, which are slow to tokenize. They are therefore
+ * converted once into a binary snapshot, a header followed by the big-endian values of
+ * the three tables, which is loaded with a single bulk read. The snapshot of the default
+ * parameters is shipped as <code>capR_loops_37.bin</code>. Other parameter sets can be
+ * converted with <code>main</code> and passed to <code>EnergyModel</code>.
+ */
+public final class LoopParameters {
+
+	/**
+	 * Resource of the snapshot of the default parameters
+	 */
+	static final String DEFAULT_SNAPSHOT = "capR_loops_37.bin";
+
+	/**
+	 * "CapR" in ASCII, followed by the format version
+	 */
+	private static final int MAGIC = 0x43617052;
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 4 * Integer.BYTES;
+
+	private static final int[] INT11_DIMENSIONS = { 8, 8, 5, 5 };
+	private static final int[] INT21_DIMENSIONS = { 8, 8, 5, 5, 5 };
+	private static final int[] INT22_DIMENSIONS = { 8, 8, 5, 5, 5, 5 };
+
+	private static LoopParameters DEFAULT = null;
+
+	final int[] int11;
+	final int[] int21;
+	final int[] int22;
+
+	private LoopParameters(int[] int11, int[] int21, int[] int22) {
+		this.int11 = int11;
+		this.int21 = int21;
+		this.int22 = int22;
+	}
+
+	/**
+	 * @return the parameters of the Vienna RNA package 1.8.5 at 37 degrees Celsius used by CapR,
+	 * loaded from the shipped snapshot on first use
+	 */
+	public static synchronized LoopParameters getDefault() {
+
+		if (DEFAULT == null) {
+			ParameterLoadEvent event = ParameterLoadEvent.FACTORY.get();
+			if (event != null) {
+				event.begin();
+			}
+			
+			InputStream is = LoopParameters.class.getClassLoader().getResourceAsStream(DEFAULT_SNAPSHOT);
+			if (is == null) {
+				throw new IllegalStateException("The energy parameter snapshot " + DEFAULT_SNAPSHOT + " is missing from the class path");
+			}
+			try {
+				DEFAULT = read(is);
+			} catch (IOException e) {
+				throw new IllegalStateException("Could not read the energy parameter snapshot " + DEFAULT_SNAPSHOT, e);
+			} finally {
+				try {
+					is.close();
+				} catch (IOException e) {
+					// nothing left to read
+				}
+			}
+			
+			if (event != null) {
+				event.commit(DEFAULT_SNAPSHOT, DEFAULT.getSize());
+			}
+		}
+		return DEFAULT;
+
+	}
+
+	/**
+	 * @return the number of bytes of the three tables
+	 */
+	long getSize() {
+		return (long) Integer.BYTES * (int11.length + int21.length + int22.length);
+	}
+
+	/**
+	 * Reads a snapshot written by <code>write</code>. The stream is not closed.
+	 * @param is
+	 * @throws IOException if the stream does not contain a complete snapshot
+	 */
+	public static LoopParameters read(InputStream is) throws IOException {
+
+		int size = EnergyModel.INT11_SIZE + EnergyModel.INT21_SIZE + EnergyModel.INT22_SIZE;
+		byte[] bytes = new byte[HEADER_SIZE + size * Integer.BYTES];
+		new DataInputStream(is).readFully(bytes);
+
+		IntBuffer values = ByteBuffer.wrap(bytes).asIntBuffer();
+		if (values.get() != MAGIC || values.get() != VERSION) {
+			throw new IOException("Not an energy parameter snapshot of version " + VERSION);
+		}
+		int parameters = values.get();
+		int reserved = values.get();
+		if (parameters != size || reserved != 0) {
+			throw new IOException("The snapshot contains " + parameters + " instead of " + size + " parameters");
+		}
+
+		int[] int11 = new int[EnergyModel.INT11_SIZE];
+		int[] int21 = new int[EnergyModel.INT21_SIZE];
+		int[] int22 = new int[EnergyModel.INT22_SIZE];
+		values.get(int11);
+		values.get(int21);
+		values.get(int22);
+
+		return new LoopParameters(int11, int21, int22);
+
+	}
+
+	/**
+	 * Writes the binary snapshot of these parameters. The stream is not closed.
+	 * @param os
+	 * @throws IOException
+	 */
+	public void write(OutputStream os) throws IOException {
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(int11.length + int21.length + int22.length);
+		out.writeInt(0);
+		for (int[] table : new int[][] { int11, int21, int22 }) {
+			for (int value : table) {
+				out.writeInt(value);
+			}
+		}
+		out.flush();
+
+	}
+
+	/**
+	 * Parses the tables from the nested C array initializers of the Vienna RNA package, as
+	 * in <code>capR_int11_37.txt</code>. Streams are not closed.
+	 * @param int11 the 8x8x5x5 table
+	 * @param int21 the 8x8x5x5x5 table
+	 * @param int22 the 8x8x5x5x5x5 table
+	 * @throws IOException
+	 */
+	public static LoopParameters parse(InputStream int11, InputStream int21, InputStream int22) throws IOException {
+
+		return new LoopParameters(parseTable(int11, INT11_DIMENSIONS), parseTable(int21, INT21_DIMENSIONS), parseTable(int22, INT22_DIMENSIONS));
+
+	}
+
+	/**
+	 * Parses a nested array initializer into a flat row-major table. A closing brace resets
+	 * the index of its level and advances the index of the enclosing one, so that rows with
+	 * fewer entries, such as <code>{{{0}}}</code>, leave the rest of the row at zero.
+	 * All characters other than braces, digits and minus signs are ignored.
+	 * @throws IOException if the braces are unbalanced or a level holds too many entries,
+	 * reporting the offset of the offending character
+	 */
+	private static int[] parseTable(InputStream is, int[] dimensions) throws IOException {
+
+		byte[] text = readAll(is);
+
+		int size = 1;
+		for (int dimension : dimensions) {
+			size *= dimension;
+		}
+		int[] table = new int[size];
+
+		int[] levels = new int[dimensions.length];
+		int level = -1;
+		int x = 0;
+		while (x < text.length) {
+			char c = (char) text[x];
+			if (c == '{') {
+				if (++level == dimensions.length) {
+					throw new IOException("The table is nested deeper than " + dimensions.length + " levels at offset " + x);
+				}
+				x++;
+			} else if (c == '}') {
+				if (level == -1) {
+					throw new IOException("Unbalanced closing brace at offset " + x);
+				}
+				levels[level] = 0;
+				level -= 1;
+				if (level != -1) {
+					levels[level] += 1;
+				}
+				x++;
+			} else if (c == '-' || (c >= '0' && c <= '9')) {
+				int start = x;
+				boolean negative = c == '-';
+				if (negative) {
+					x++;
+				}
+				int value = 0;
+				while (x < text.length && text[x] >= '0' && text[x] <= '9') {
+					value = 10 * value + (text[x++] - '0');
+				}
+				if (level != dimensions.length - 1) {
+					throw new IOException("Value outside of the innermost level of the table at offset " + start);
+				}
+				int index = 0;
+				for (int d = 0; d < dimensions.length; d++) {
+					if (levels[d] >= dimensions[d]) {
+						throw new IOException("The table exceeds its dimension " + dimensions[d] + " at level " + d + " at offset " + start);
+					}
+					index = index * dimensions[d] + levels[d];
+				}
+				table[index] = negative ? -value : value;
+				levels[level] += 1;
+			} else {
+				x++;
+			}
+		}
+
+		if (level != -1) {
+			throw new IOException("The table ends with an unclosed brace at level " + level);
+		}
+
+		return table;
+
+	}
+
+	private static byte[] readAll(InputStream is) throws IOException {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1 << 16];
+		int read;
+		while ((read = is.read(buffer)) != -1) {
+			bytes.write(buffer, 0, read);
+		}
+		return bytes.toByteArray();
+
+	}
+
+	/**
+	 * Converts a parameter set in the text format into a binary snapshot.
+	 * <code>java -cp capr4j.jar lib.structure.capr.LoopParameters int11.txt int21.txt int22.txt snapshot.bin</code>
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+
+		if (args.length != 4) {
+			System.err.println("Usage: LoopParameters int11.txt int21.txt int22.txt snapshot.bin");
+			System.exit(1);
+		}
+
+		LoopParameters parameters;
+		try (InputStream int11 = new FileInputStream(args[0]);
+				InputStream int21 = new FileInputStream(args[1]);
+				InputStream int22 = new FileInputStream(args[2])) {
+			parameters = parse(int11, int21, int22);
+		}
+
+		try (OutputStream os = new FileOutputStream(args[3])) {
+			parameters.write(os);
+		}
+
+	}
+
+}
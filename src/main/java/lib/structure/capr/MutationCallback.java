@@ -0,0 +1,24 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+/**
+ * @author Jan Hoinka
+ *
+ * Receives the effect of single nucleotide mutations computed by a mutational scan.
+ * Implementations handed to the parallel scan of <code>CapRPool</code> are called from
+ * several threads at once and must be thread-safe.
+ */
+public interface MutationCallback {
+
+	/**
+	 * Called once for every mutant
+	 * @param position the zero-based position of the mutated nucleotide
+	 * @param nucleotide the nucleotide at <code>position</code> in the mutant, one of <code>A,C,G,U</code>
+	 * @param delta the profile of the mutant minus the profile of the wild type, in the
+	 * layout of <code>CapR.getStructuralProfile</code>
+	 */
+	void accept(int position, byte nucleotide, double[] delta);
+
+}
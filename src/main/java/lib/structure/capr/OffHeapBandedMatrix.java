@@ -0,0 +1,301 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * @author Jan Hoinka
+ *
+ * A <code>BandedMatrix</code> storing its cells outside of the Java heap, either in direct
+ * buffers or in memory mapped temporary files, see <code>TableStorage</code>. Since a
+ * single buffer is limited to 2^31 bytes, the rows are split into segments of a power of
+ * two rows each, which are allocated on demand. A cell is addressed by its segment and the
+ * index of its row within the segment, so that the number of cells of the matrix is only
+ * limited by the range of a long.
+ *
+ * Segments are released once they are no longer referenced, i.e. after <code>release</code>,
+ * or when the number of columns grows such that fewer rows fit into a segment.
+ */
+public class OffHeapBandedMatrix extends BandedMatrix {
+
+	/**
+	 * The maximal size of a segment in bytes
+	 */
+	static final int SEGMENT_BYTES = 1 << 30;
+
+	private final TableStorage storage;
+
+	private final File spill_directory;
+
+	/**
+	 * Cells are stored as floats rather than doubles
+	 */
+	private final boolean single;
+
+	private final int cell_bytes;
+
+	private final int segment_bytes;
+
+	/**
+	 * Row <code>r</code> is stored in segment <code>r &gt;&gt;&gt; shift</code> at row
+	 * <code>r &amp; mask</code>
+	 */
+	private int shift = -1;
+
+	private int mask = 0;
+
+	private ByteBuffer[] segments = new ByteBuffer[0];
+
+	/**
+	 * Typed views of <code>segments</code>, depending on the precision
+	 */
+	private DoubleBuffer[] doubles = new DoubleBuffer[0];
+
+	private FloatBuffer[] floats = new FloatBuffer[0];
+
+	/**
+	 * @param storage either <code>TableStorage.DIRECT</code> or <code>TableStorage.MAPPED</code>
+	 * @param precision
+	 * @param spill_directory the directory of the mapped files, or null for the default
+	 * temporary directory. Ignored for direct buffers.
+	 */
+	public OffHeapBandedMatrix(TableStorage storage, TablePrecision precision, File spill_directory){
+
+		this(storage, precision, spill_directory, SEGMENT_BYTES);
+
+	}
+
+	OffHeapBandedMatrix(TableStorage storage, TablePrecision precision, File spill_directory, int segment_bytes){
+
+		super();
+
+		if (storage == TableStorage.HEAP){
+			throw new IllegalArgumentException("Tables stored on the heap are provided by BandedMatrix");
+		}
+
+		this.storage = storage;
+		this.spill_directory = spill_directory;
+		this.single = precision == TablePrecision.FLOAT;
+		this.cell_bytes = single ? Float.BYTES : Double.BYTES;
+		this.segment_bytes = segment_bytes;
+
+	}
+
+	@Override
+	public void set(int row, int col, double value){
+
+		if (stamps[row] != epoch){
+			fillRow(row);
+			stamps[row] = epoch;
+		}
+
+		int index = (row & mask) * cols + col;
+		if (single){
+			floats[row >>> shift].put(index, (float) value);
+		} else {
+			doubles[row >>> shift].put(index, value);
+		}
+
+	}
+
+	@Override
+	public double get(int row, int col){
+
+		if (stamps[row] != epoch){
+			return default_value;
+		}
+
+		int index = (row & mask) * cols + col;
+		return single ? floats[row >>> shift].get(index) : doubles[row >>> shift].get(index);
+
+	}
+
+	@Override
+	public void materialize(){
+
+		for (int row = 0; row < rows; row++){
+			if (stamps[row] != epoch){
+				fillRow(row);
+				stamps[row] = epoch;
+			}
+		}
+
+	}
+
+	@Override
+	public void copyRowsTo(int from, int to, double[] buffer, int offset){
+
+		for (int row = from; row < to; row++, offset += cols){
+			if (stamps[row] == epoch){
+				for (int col = 0; col < cols; col++){
+					buffer[offset + col] = get(row, col);
+				}
+			} else {
+				Arrays.fill(buffer, offset, offset + cols, default_value);
+			}
+		}
+
+	}
+
+	@Override
+	public void copyRowsFrom(int from, int to, double[] buffer, int offset){
+
+		for (int row = from; row < to; row++, offset += cols){
+			stamps[row] = epoch;
+			for (int col = 0; col < cols; col++){
+				set(row, col, buffer[offset + col]);
+			}
+		}
+
+	}
+
+	@Override
+	public long getAllocatedBytes(){
+
+		long bytes = 4L * stamps.length;
+		for (ByteBuffer segment : segments){
+			bytes += segment.capacity();
+		}
+		return bytes;
+
+	}
+
+	@Override
+	public void release(){
+
+		super.release();
+		shift = -1;
+		mask = 0;
+		setSegments(new ByteBuffer[0]);
+
+	}
+
+	/**
+	 * Changes the dimension of the matrix and allocates more segments if required.
+	 * Segments only ever grow as long as the number of rows per segment is unchanged.
+	 * If the number of columns is unchanged, the existing rows keep their values.
+	 * Otherwise, once the segments are reallocated, all rows read as the default value.
+	 * @param rows
+	 * @param cols
+	 */
+	@Override
+	public BandedMatrix reshape(int rows, int cols){
+
+		long row_bytes = (long) cols * cell_bytes;
+		if (row_bytes > Integer.MAX_VALUE){
+			throw new IllegalArgumentException("A row of " + cols + " columns exceeds the size of a buffer");
+		}
+
+		// the layout is kept while the rows of a segment fit, otherwise it changes to the
+		// largest power of two of rows fitting into a segment
+		if (shift < 0 || (row_bytes << shift) > Math.max(segment_bytes, row_bytes)){
+			shift = 31 - Integer.numberOfLeadingZeros((int) Math.max(1, segment_bytes / row_bytes));
+			mask = (1 << shift) - 1;
+			setSegments(new ByteBuffer[0]);
+
+			// the rows written so far are gone with their segments, so they must not read
+			// as current from the freshly allocated ones
+			clear(default_value);
+		}
+
+		int needed = rows > 0 ? ((rows - 1) >>> shift) + 1 : 0;
+		ByteBuffer[] grown = Arrays.copyOf(segments, Math.max(segments.length, needed));
+		for (int s = 0; s < grown.length; s++){
+			int segment_rows = Math.min(1 << shift, rows - (s << shift));
+			int bytes = (int) (segment_rows * row_bytes);
+			if (segment_rows > 0 && (grown[s] == null || grown[s].capacity() < bytes)){
+				ByteBuffer segment = allocate(bytes);
+				if (grown[s] != null){
+					// positions are reset through Buffer, whose methods are not overridden on Java 8
+					ByteBuffer old = grown[s].duplicate();
+					((Buffer) old).clear();
+					segment.put(old);
+					((Buffer) segment).clear();
+				}
+				grown[s] = segment;
+			}
+		}
+		setSegments(grown);
+
+		if (stamps.length < rows){
+			stamps = Arrays.copyOf(stamps, rows);
+		}
+
+		this.rows = rows;
+		this.cols = cols;
+
+		return this;
+	}
+
+	/**
+	 * Overwrites a row with the default value
+	 */
+	private void fillRow(int row){
+
+		int index = (row & mask) * cols;
+		if (single){
+			FloatBuffer segment = floats[row >>> shift];
+			for (int col = 0; col < cols; col++){
+				segment.put(index + col, (float) default_value);
+			}
+		} else {
+			DoubleBuffer segment = doubles[row >>> shift];
+			for (int col = 0; col < cols; col++){
+				segment.put(index + col, default_value);
+			}
+		}
+
+	}
+
+	private void setSegments(ByteBuffer[] segments){
+
+		this.segments = segments;
+		doubles = new DoubleBuffer[single ? 0 : segments.length];
+		floats = new FloatBuffer[single ? segments.length : 0];
+		for (int s = 0; s < segments.length; s++){
+			if (single){
+				floats[s] = segments[s].asFloatBuffer();
+			} else {
+				doubles[s] = segments[s].asDoubleBuffer();
+			}
+		}
+
+	}
+
+	/**
+	 * Allocates a segment of <code>bytes</code> bytes in the native byte order
+	 */
+	private ByteBuffer allocate(int bytes){
+
+		if (storage == TableStorage.DIRECT){
+			return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+		}
+
+		try {
+			File file = File.createTempFile("capr", ".table", spill_directory);
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")){
+				return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, bytes).order(ByteOrder.nativeOrder());
+			} finally {
+				// the mapping stays valid, the space is reclaimed once it is unmapped
+				if (!file.delete()){
+					file.deleteOnExit();
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not map a table segment of " + bytes + " bytes in " + (spill_directory != null ? spill_directory : System.getProperty("java.io.tmpdir")), e);
+		}
+
+	}
+
+}
@@ -0,0 +1,31 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import java.util.function.Supplier;
+
+/**
+ * @author Jan Hoinka
+ *
+ * Flight recorder event spanning the loading of the default loop energy parameters, which
+ * delays the first fold of a JVM. <code>InitLoops</code> copies them without an event of
+ * its own.
+ */
+interface ParameterLoadEvent {
+
+	/**
+	 * Creates new events, or null if flight recorder events are not available
+	 */
+	Supplier<ParameterLoadEvent> FACTORY = FlightRecording.events(ParameterLoadEvent.class, "lib.structure.capr.JfrParameterLoadEvent");
+
+	void begin();
+
+	/**
+	 * Records the event, if enabled
+	 * @param target
+	 * @param bytes the size of the loaded tables
+	 */
+	void commit(String target, long bytes);
+
+}
@@ -0,0 +1,23 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+/**
+ * @author Jan Hoinka
+ *
+ * Receives the structural profiles computed by the batch methods of <code>CapRPool</code>.
+ * Profiles are delivered as soon as they are available, hence in no particular order and
+ * possibly from several threads at once. Implementations must be thread-safe.
+ */
+public interface ProfileCallback {
+
+	/**
+	 * Called once for every sequence of the batch
+	 * @param index the position of the sequence in the batch
+	 * @param sequence the folded sequence
+	 * @param profile its profile in the layout of <code>CapR.getStructuralProfile</code>
+	 */
+	void accept(int index, byte[] sequence, double[] profile);
+
+}
@@ -0,0 +1,27 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import java.util.function.Supplier;
+
+/**
+ * @author Jan Hoinka
+ *
+ * Flight recorder event spanning <code>CapR.getStructuralProfile</code>
+ */
+interface ProfileEvent {
+
+	/**
+	 * Creates new events, or null if flight recorder events are not available
+	 */
+	Supplier<ProfileEvent> FACTORY = FlightRecording.events(ProfileEvent.class, "lib.structure.capr.JfrProfileEvent");
+
+	void begin();
+
+	/**
+	 * Records the event, if enabled, with the state of <code>capr</code>
+	 */
+	void commit(CapR capr);
+
+}
@@ -0,0 +1,87 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+/**
+ * @author Jan Hoinka
+ *
+ * Interfaces for demand-driven streams of sequences and structural profiles. They have
+ * the same methods and contracts as <code>java.util.concurrent.Flow</code> (and the
+ * reactive streams specification), which is only available from Java 9 on. Hence, on
+ * newer JVMs, adapting them to <code>Flow</code> only requires delegating every method.
+ *
+ * In short, a subscriber receives items only after requesting them via its subscription,
+ * signals to a subscriber never overlap, and a stream ends with at most one of
+ * <code>onError</code> or <code>onComplete</code>.
+ */
+public final class ProfileFlow {
+
+	private ProfileFlow() {
+	}
+
+	/**
+	 * A producer of items which are received by subscribers on demand
+	 */
+	public interface Publisher<T> {
+
+		/**
+		 * Adds the subscriber, which is then handed a subscription via <code>onSubscribe</code>
+		 * @param subscriber
+		 */
+		void subscribe(Subscriber<? super T> subscriber);
+	}
+
+	/**
+	 * A receiver of items
+	 */
+	public interface Subscriber<T> {
+
+		/**
+		 * Called before any other signal of the subscription
+		 * @param subscription
+		 */
+		void onSubscribe(Subscription subscription);
+
+		/**
+		 * Called with the next item, at most as often as requested
+		 * @param item
+		 */
+		void onNext(T item);
+
+		/**
+		 * Called when the stream failed, no further signals follow
+		 * @param throwable
+		 */
+		void onError(Throwable throwable);
+
+		/**
+		 * Called when the stream ended regularly, no further signals follow
+		 */
+		void onComplete();
+	}
+
+	/**
+	 * Links a publisher and a subscriber
+	 */
+	public interface Subscription {
+
+		/**
+		 * Adds <code>n</code> items to the demand of the subscriber
+		 * @param n a positive number, <code>Long.MAX_VALUE</code> for unbounded demand
+		 */
+		void request(long n);
+
+		/**
+		 * Stops the delivery of items, possibly after already pending signals
+		 */
+		void cancel();
+	}
+
+	/**
+	 * A stage acting as both subscriber and publisher
+	 */
+	public interface Processor<T, R> extends Subscriber<T>, Publisher<R> {
+	}
+
+}
@@ -0,0 +1,374 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Jan Hoinka
+ *
+ * A processor folding the sequences of an upstream publisher and publishing their
+ * structural profiles, in input order, to a single downstream subscriber.
+ *
+ * Backpressure is propagated end to end. The processor requests at most
+ * <code>max_in_flight</code> sequences from upstream which are neither folded nor delivered
+ * yet, and requests a further sequence only once the downstream subscriber has taken a
+ * profile. A slow consumer therefore throttles the producer instead of filling up the heap,
+ * and at most <code>max_in_flight</code> profiles are buffered at any time. Sequences are
+ * folded concurrently on <code>executor</code>, using workspaces of a <code>CapRPool</code>.
+ *
+ * A failing fold cancels the upstream subscription and is signalled downstream right
+ * away, as are errors of the upstream publisher and a publisher sending more sequences
+ * than requested. Completion is signalled once all received
+ * sequences have been delivered.
+ */
+public class ProfileProcessor implements ProfileFlow.Processor<byte[], ProfileResult> {
+
+	private final CapRPool pool;
+
+	private final int maximal_span;
+
+	private final Executor executor;
+
+	private final int max_in_flight;
+
+	/**
+	 * Folded, but not yet delivered profiles, the result of the i-th sequence is stored at
+	 * <code>i % max_in_flight</code>
+	 */
+	private final ProfileResult[] window;
+
+	/**
+	 * Serializes the signals to the downstream subscriber, see <code>drain</code>
+	 */
+	private final AtomicInteger wip = new AtomicInteger();
+
+	private ProfileFlow.Subscription upstream = null;
+
+	private ProfileFlow.Subscriber<? super ProfileResult> downstream = null;
+
+	/**
+	 * Number of sequences received from upstream
+	 */
+	private long received = 0;
+
+	/**
+	 * Number of profiles delivered downstream
+	 */
+	private long delivered = 0;
+
+	/**
+	 * Outstanding demand of the downstream subscriber
+	 */
+	private long requested = 0;
+
+	private boolean upstream_done = false;
+
+	private Throwable error = null;
+
+	private boolean cancelled = false;
+
+	private boolean terminated = false;
+
+	/**
+	 * Creates a processor folding on the common fork-join pool
+	 * @param pool the workspaces to fold with
+	 * @param maximal_span the maximal span, or a value &lt;= 0 to use the length of each sequence
+	 * @param max_in_flight maximal number of sequences being folded or waiting for delivery
+	 */
+	public ProfileProcessor(CapRPool pool, int maximal_span, int max_in_flight) {
+		this(pool, maximal_span, ForkJoinPool.commonPool(), max_in_flight);
+	}
+
+	/**
+	 * @param pool the workspaces to fold with
+	 * @param maximal_span the maximal span, or a value &lt;= 0 to use the length of each sequence
+	 * @param executor the executor to fold on, which determines the parallelism
+	 * @param max_in_flight maximal number of sequences being folded or waiting for delivery
+	 */
+	public ProfileProcessor(CapRPool pool, int maximal_span, Executor executor, int max_in_flight) {
+
+		if (max_in_flight < 1) {
+			throw new IllegalArgumentException("The number of sequences in flight (" + max_in_flight + ") must be positive");
+		}
+
+		this.pool = pool;
+		this.maximal_span = maximal_span;
+		this.executor = executor;
+		this.max_in_flight = max_in_flight;
+		this.window = new ProfileResult[max_in_flight];
+
+	}
+
+	@Override
+	public void onSubscribe(ProfileFlow.Subscription subscription) {
+
+		synchronized (this) {
+			if (upstream != null || cancelled) {
+				subscription.cancel();
+				return;
+			}
+			upstream = subscription;
+		}
+
+		subscription.request(max_in_flight);
+
+	}
+
+	@Override
+	public void onNext(final byte[] sequence) {
+
+		final long index;
+		ProfileFlow.Subscription overflowed = null;
+		synchronized (this) {
+			if (cancelled || upstream_done || error != null) {
+				return;
+			}
+
+			// the slot of this sequence still holds an undelivered profile
+			if (received - delivered >= max_in_flight) {
+				error = new IllegalStateException("The publisher sent more than the " + max_in_flight + " requested sequences");
+				upstream_done = true;
+				overflowed = upstream;
+			}
+			index = received++;
+		}
+
+		if (overflowed != null) {
+			overflowed.cancel();
+			drain();
+			return;
+		}
+
+		try {
+			executor.execute(() -> fold(index, sequence));
+		} catch (Throwable e) {
+			failAndRethrowFatal(e);
+		}
+
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+
+		synchronized (this) {
+			upstream_done = true;
+			if (error == null) {
+				error = throwable;
+			}
+		}
+		drain();
+
+	}
+
+	@Override
+	public void onComplete() {
+
+		synchronized (this) {
+			upstream_done = true;
+		}
+		drain();
+
+	}
+
+	@Override
+	public void subscribe(ProfileFlow.Subscriber<? super ProfileResult> subscriber) {
+
+		boolean accepted;
+		synchronized (this) {
+			accepted = downstream == null;
+			if (accepted) {
+				downstream = subscriber;
+			}
+		}
+
+		if (!accepted) {
+			subscriber.onSubscribe(new ProfileFlow.Subscription() {
+				@Override
+				public void request(long n) {
+				}
+
+				@Override
+				public void cancel() {
+				}
+			});
+			subscriber.onError(new IllegalStateException("ProfileProcessor supports a single subscriber only"));
+			return;
+		}
+
+		subscriber.onSubscribe(new ProfileFlow.Subscription() {
+			@Override
+			public void request(long n) {
+				if (n <= 0) {
+					fail(new IllegalArgumentException("The requested number of profiles (" + n + ") must be positive"));
+					return;
+				}
+				synchronized (ProfileProcessor.this) {
+					requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+				}
+				drain();
+			}
+
+			@Override
+			public void cancel() {
+				ProfileFlow.Subscription subscription;
+				synchronized (ProfileProcessor.this) {
+					if (cancelled) {
+						return;
+					}
+					cancelled = true;
+					subscription = upstream_done ? null : upstream;
+					Arrays.fill(window, null);
+				}
+				if (subscription != null) {
+					subscription.cancel();
+				}
+			}
+		});
+
+		drain();
+
+	}
+
+	/**
+	 * Folds a sequence on a pooled workspace and stores its profile for delivery
+	 */
+	private void fold(long index, byte[] sequence) {
+
+		synchronized (this) {
+			if (cancelled || error != null) {
+				return;
+			}
+		}
+
+		ProfileResult result;
+		try {
+			result = new ProfileResult(index, sequence, pool.getStructuralProfile(sequence, maximal_span > 0 ? maximal_span : sequence.length));
+		} catch (Throwable e) {
+			failAndRethrowFatal(e);
+			return;
+		}
+
+		synchronized (this) {
+			if (cancelled) {
+				return;
+			}
+			window[(int) (index % max_in_flight)] = result;
+		}
+		drain();
+
+	}
+
+	/**
+	 * Terminates the stream with <code>e</code> unless it already terminated
+	 */
+	private void fail(Throwable e) {
+
+		synchronized (this) {
+			if (error == null) {
+				error = e;
+			}
+		}
+		drain();
+
+	}
+
+	/**
+	 * Terminates the stream with <code>e</code>, which may also be an <code>Error</code> such as
+	 * an <code>OutOfMemoryError</code> of a fold, so that the subscriber is always signalled.
+	 * Errors of the virtual machine are rethrown afterwards.
+	 */
+	private void failAndRethrowFatal(Throwable e) {
+
+		fail(e);
+		if (e instanceof VirtualMachineError) {
+			throw (VirtualMachineError) e;
+		}
+
+	}
+
+	/**
+	 * Emits all profiles the downstream subscriber asked for and which are available in
+	 * input order, as well as terminal signals. Only one thread drains at a time, threads
+	 * arriving meanwhile make the draining thread loop once more.
+	 */
+	private void drain() {
+
+		if (wip.getAndIncrement() != 0) {
+			return;
+		}
+
+		int missed = 1;
+		do {
+
+			ProfileFlow.Subscriber<? super ProfileResult> subscriber;
+			ProfileFlow.Subscription subscription;
+			ProfileResult result;
+			boolean more;
+
+			// deliver profiles
+			while (true) {
+				synchronized (this) {
+					subscriber = downstream;
+					subscription = upstream;
+					if (subscriber == null || cancelled || terminated || error != null || requested == 0) {
+						break;
+					}
+					int slot = (int) (delivered % max_in_flight);
+					result = window[slot];
+					if (result == null) {
+						break;
+					}
+					window[slot] = null;
+					delivered++;
+					if (requested != Long.MAX_VALUE) {
+						requested--;
+					}
+					more = !upstream_done;
+				}
+
+				subscriber.onNext(result);
+
+				// the profile left the window, so another sequence can be taken in
+				if (more) {
+					subscription.request(1);
+				}
+			}
+
+			// terminal signals
+			Throwable failure = null;
+			boolean complete = false;
+			boolean cancel_upstream = false;
+			synchronized (this) {
+				if (subscriber != null && !cancelled && !terminated) {
+					if (error != null) {
+						failure = error;
+						terminated = true;
+						cancel_upstream = !upstream_done && upstream != null;
+						Arrays.fill(window, null);
+					} else if (upstream_done && delivered == received) {
+						complete = true;
+						terminated = true;
+					}
+				}
+			}
+
+			if (cancel_upstream) {
+				subscription.cancel();
+			}
+			if (failure != null) {
+				subscriber.onError(failure);
+			} else if (complete) {
+				subscriber.onComplete();
+			}
+
+			missed = wip.addAndGet(-missed);
+		} while (missed != 0);
+
+	}
+
+}
@@ -0,0 +1,44 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+/**
+ * @author Jan Hoinka
+ *
+ * The structural profile of a sequence together with its position in the stream
+ * it was received from.
+ */
+public final class ProfileResult {
+
+	private final long index;
+
+	private final byte[] sequence;
+
+	private final double[] profile;
+
+	public ProfileResult(long index, byte[] sequence, double[] profile) {
+		this.index = index;
+		this.sequence = sequence;
+		this.profile = profile;
+	}
+
+	/**
+	 * @return the zero-based position of the sequence in its stream
+	 */
+	public long getIndex() {
+		return index;
+	}
+
+	public byte[] getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return the profile in the layout of <code>CapR.getStructuralProfile</code>
+	 */
+	public double[] getProfile() {
+		return profile;
+	}
+
+}
@@ -0,0 +1,110 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * @author Jan Hoinka
+ *
+ * Applies an action to every index of a closed range on a fork-join pool by
+ * recursively splitting the range in halves until it contains at most
+ * <code>grain_size</code> indices.
+ */
+final class RangeTask extends RecursiveAction {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Upper bound on the number of chunks returned by <code>chunkSize</code>, limiting
+	 * the number of thread-local accumulators that have to be merged
+	 */
+	static final int MAX_CHUNKS = 64;
+
+	private final int from;
+
+	private final int to;
+
+	private final int grain_size;
+
+	private final IntConsumer action;
+
+	private RangeTask(int from, int to, int grain_size, IntConsumer action) {
+		this.from = from;
+		this.to = to;
+		this.grain_size = grain_size;
+		this.action = action;
+	}
+
+	/**
+	 * Applies <code>action</code> to all indices in <code>[from,to]</code> and returns once
+	 * all of them have completed. Ranges not larger than <code>grain_size</code>, or any
+	 * range if <code>pool</code> is null, are processed by the calling thread. When called
+	 * from a worker of <code>pool</code>, the range is forked into it, while callers from
+	 * other threads, including workers of other pools, wait for <code>pool</code> to
+	 * process it.
+	 */
+	static void run(ForkJoinPool pool, int from, int to, int grain_size, IntConsumer action) {
+
+		if (pool == null || to - from + 1 <= grain_size) {
+			for (int x = from; x <= to; x++) {
+				action.accept(x);
+			}
+		} else if (ForkJoinTask.getPool() == pool) {
+			new RangeTask(from, to, grain_size, action).invoke();
+		} else {
+			pool.invoke(new RangeTask(from, to, grain_size, action));
+		}
+
+	}
+
+	/**
+	 * Runs all <code>actions</code> concurrently and returns once all of them have completed.
+	 */
+	static void all(ForkJoinPool pool, Runnable... actions) {
+
+		run(pool, 0, actions.length - 1, 1, k -> actions[k].run());
+
+	}
+
+	/**
+	 * The number of consecutive indices of <code>[from,to]</code> to assign to a single
+	 * accumulator, such that chunks are at least <code>grain_size</code> indices large and
+	 * there are no more than <code>MAX_CHUNKS</code> of them.
+	 */
+	static int chunkSize(int from, int to, int grain_size) {
+
+		int count = Math.max(0, to - from + 1);
+		return Math.max(Math.max(1, grain_size), (count + MAX_CHUNKS - 1) / MAX_CHUNKS);
+
+	}
+
+	/**
+	 * The number of chunks of size <code>size</code> covering <code>[from,to]</code>
+	 */
+	static int chunks(int from, int to, int size) {
+
+		return (Math.max(0, to - from + 1) + size - 1) / size;
+
+	}
+
+	@Override
+	protected void compute() {
+
+		if (to - from + 1 <= grain_size) {
+			for (int x = from; x <= to; x++) {
+				action.accept(x);
+			}
+			return;
+		}
+
+		int middle = (from + to) >>> 1;
+		invokeAll(new RangeTask(from, middle, grain_size, action), new RangeTask(middle + 1, to, grain_size, action));
+
+	}
+
+}
@@ -0,0 +1,735 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+/**
+ * @author Jan Hoinka
+ *
+ * Implements the inside and outside recursions of CapR with Boltzmann weights in the
+ * linear domain instead of log-space partition functions. To keep the weights of long
+ * sequences within the range of a double, every inside cell covering a subsequence of
+ * length <code>L</code> is multiplied by <code>s^L</code>, and every outside cell by
+ * <code>s^(n-L)</code>, where <code>s</code> is a constant factor per nucleotide. This
+ * corresponds to the <code>pf_scale</code> scheme of the Vienna RNA package. Whenever two
+ * cells are combined, the precomputed factor <code>scale[u]</code> accounts for the
+ * <code>u</code> nucleotides not covered by either of them. The scaling cancels out when
+ * probabilities are computed.
+ *
+ * The engine operates directly on the tables of the owning CapR instance and leaves the
+ * scaled weights in them.
+ */
+final class ScaledLinearEngine {
+
+	/**
+	 * Maximal number of folds with a corrected scaling factor before giving up
+	 */
+	private static final int MAX_RESCALES = 8;
+
+	/**
+	 * The scaled partition function has to lie within these bounds, otherwise the
+	 * fold is repeated with a corrected scaling factor.
+	 */
+	private static final double MIN_PARTITION = 1e-250;
+	private static final double MAX_PARTITION = 1e250;
+
+	private final CapR capr;
+
+	// Boltzmann factors exp(-E/kT), references into the shared energy model of the owning instance
+	private final double kT;
+	private final double temperature;
+	private final double[] exphairpin;
+	private final double[] expmismatchH;
+	private final double[] expmismatchI;
+	private final double[] expstack;
+	private final double[] expbulge;
+	private final double expTermAU;
+	private final double[] expint11;
+	private final double[] expint21;
+	private final double[] expint22;
+	private final double[] expinternal;
+	private final double expMLclosing;
+	private final double expMLintern;
+	private final double expMLbase;
+	private final double[] expdangle5;
+	private final double[] expdangle3;
+	private final double[] expninio;
+
+	/**
+	 * Encoded sequence of the current fold, 1-based, shared with the owning instance
+	 */
+	private byte[] seq = new byte[0];
+
+	/**
+	 * <code>scale[u] = s^u</code>
+	 */
+	private double[] scale = new double[0];
+
+	/**
+	 * Boltzmann factor of the length dependent hairpin energy, extended to the maximal span
+	 */
+	private double[] exphp = new double[0];
+
+	/**
+	 * <code>log(s)</code> of the last fold
+	 */
+	private double log_scale = 0.0;
+
+	ScaledLinearEngine(CapR capr) {
+
+		this.capr = capr;
+
+		EnergyModel model = capr._model;
+		kT = model.kT;
+		temperature = model.temperature;
+		exphairpin = model.exphairpin;
+		expmismatchH = model.expmismatchH;
+		expmismatchI = model.expmismatchI;
+		expstack = model.expstack;
+		expbulge = model.expbulge;
+		expTermAU = model.expTermAU;
+		expint11 = model.expint11;
+		expint21 = model.expint21;
+		expint22 = model.expint22;
+		expinternal = model.expinternal;
+		expMLclosing = model.expMLclosing;
+		expMLintern = model.expMLintern;
+		expMLbase = model.expMLbase;
+		expdangle5 = model.expdangle5;
+		expdangle3 = model.expdangle3;
+		expninio = model.expninio;
+	}
+
+	/**
+	 * Runs the inside and outside recursions on the (cleared) tables of the owning
+	 * instance, correcting the scaling factor until the partition function is
+	 * representable.
+	 * @return false if no suitable scaling factor was found, in which case the
+	 * tables are left in an undefined state.
+	 */
+	boolean compute() {
+
+		int n = capr._seq_length;
+
+		seq = capr._int_sequence;
+
+		double log_s = initialLogScale();
+
+		for (int attempt = 0; attempt <= MAX_RESCALES; attempt++) {
+
+			if (attempt > 0) {
+				capr.ClearTables(0.0);
+			}
+			setScale(log_s);
+
+			long start = System.nanoTime();
+			CalcInsideVariable();
+			capr.Record(FoldPhase.INSIDE, start);
+			double growth = growth(capr._Alpha_outer, n);
+			if (growth != 0.0) {
+				log_s -= growth;
+				continue;
+			}
+
+			start = System.nanoTime();
+			CalcOutsideVariable();
+			capr.Record(FoldPhase.OUTSIDE, start);
+			double outside = capr._Beta_outer[0];
+			if (!(outside >= MIN_PARTITION && outside <= MAX_PARTITION)) {
+				return false;
+			}
+
+			log_scale = log_s;
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return <code>log(s)</code> used for the last successful fold
+	 */
+	double getLogScale() {
+		return log_scale;
+	}
+
+	/**
+	 * The scaling factor used by the Vienna RNA package in the absence of a minimum free
+	 * energy, based on a mean free energy of random sequences of -185 cal/mol per nucleotide.
+	 */
+	private double initialLogScale() {
+		return Math.min(0.0, (-185 + (temperature - 37.) * 7.27) / kT);
+	}
+
+	/**
+	 * Estimates by how much <code>log(s)</code> has to be corrected for the scaled partition
+	 * function to become representable, based on the mean contribution per nucleotide of the
+	 * longest prefix that could still be represented.
+	 * @return 0 if the scaled partition function is within bounds
+	 */
+	private double growth(double[] outer, int n) {
+
+		double z = outer[n];
+		if (z >= MIN_PARTITION && z <= MAX_PARTITION) {
+			return 0.0;
+		}
+		if (z > 0 && !Double.isInfinite(z)) {
+			return Math.log(z) / n;
+		}
+
+		for (int i = n - 1; i > 0; i--) {
+			double v = outer[i];
+			if (v > 0 && !Double.isInfinite(v)) {
+				double g = Math.log(v) / i;
+				// make sure we move in the right direction, even if the prefix was within bounds
+				return z == 0.0 ? Math.min(g, -1.0 / n) : Math.max(g, 1.0 / n);
+			}
+		}
+
+		return z == 0.0 ? -1.0 : 1.0;
+	}
+
+	/**
+	 * Fills <code>scale</code> and <code>exphp</code> for the current sequence and span
+	 */
+	private void setScale(double log_s) {
+
+		int size = Math.max(capr._maximal_span, EnergyPar.MAXLOOP) + 3;
+		if (scale.length < size) {
+			scale = new double[size];
+			exphp = new double[size];
+		}
+
+		for (int u = 0; u < size; u++) {
+			scale[u] = Math.exp(u * log_s);
+			exphp[u] = u <= 30 ? exphairpin[u]
+					: Math.exp(capr.hairpin[30] - EnergyPar.lxc37 * Math.log(u / 30.) * 10. / kT);
+		}
+	}
+
+	private void CalcInsideVariable() {
+
+		int n = capr._seq_length;
+		int w = capr._maximal_span;
+
+		BandedMatrix stem = capr._Alpha_stem;
+		double[] outer = capr._Alpha_outer;
+
+		if (capr._pool == null) {
+			for (int j = EnergyPar.TURN + 1; j <= n; j++) {
+				for (int i = j - EnergyPar.TURN; i >= Math.max(0, j - w - 1); i--) {
+					CalcInsideCell(i, j);
+				}
+			}
+		} else {
+			// all cells of a span depend on shorter spans only
+			capr.MaterializeTables();
+			for (int d = EnergyPar.TURN; d <= Math.min(n, w + 1); d++) {
+				final int span = d;
+				RangeTask.run(capr._pool, Math.max(0, EnergyPar.TURN + 1 - span), n - span, capr._grain_size,
+						i -> CalcInsideCell(i, i + span));
+			}
+		}
+
+		// Alpha_Outer
+		outer[0] = 1.0;
+		for (int i = 1; i <= n; i++) {
+			double temp = outer[i - 1] * scale[1];
+			for (int p = Math.max(0, i - w - 1); p < i; p++) {
+				double s = stem.get(p, i - p);
+				if (s != 0.0) {
+					int type = capr.PairType(p + 1, i);
+					temp += s * CalcDangleBoltzmann(type, p, i) * outer[p];
+				}
+			}
+			outer[i] = temp;
+		}
+	}
+
+	/**
+	 * Computes all inside weights of the subsequence <code>(i,j]</code>. Requires all
+	 * subsequences of shorter span to be computed.
+	 */
+	private void CalcInsideCell(int i, int j) {
+
+		int n = capr._seq_length;
+
+		BandedMatrix stem = capr._Alpha_stem;
+		BandedMatrix stemend = capr._Alpha_stemend;
+		BandedMatrix multi = capr._Alpha_multi;
+		BandedMatrix multibif = capr._Alpha_multibif;
+		BandedMatrix multi1 = capr._Alpha_multi1;
+		BandedMatrix multi2 = capr._Alpha_multi2;
+
+		// Alpha_stem
+		int type = capr.PairType(i + 1, j);
+		double temp = 0.0;
+		if (type != 0) {
+			int type2 = EnergyPar.rtype[capr.PairType(i + 2, j - 1)];
+			double inner = stem.get(i + 1, j - i - 2);
+			if (inner != 0.0 && type2 != 0) {
+				// Stem -> Stem
+				temp = inner * LoopBoltzmann(type, type2, i + 1, j, i + 2, j - 1);
+			}
+			// Stem -> StemEnd
+			temp = (temp + stemend.get(i + 1, j - i - 2)) * scale[2];
+		}
+		stem.set(i, j - i, temp);
+
+		// Alpha_multiBif
+		temp = 0.0;
+		for (int k = i + 1; k <= j - 1; k++) {
+			temp += multi1.get(i, k - i) * multi2.get(k, j - k);
+		}
+		multibif.set(i, j - i, temp);
+
+		// Alpha_multi2
+		temp = multi2.get(i, j - i - 1) * expMLbase * scale[1];
+		if (type != 0) {
+			temp += stem.get(i, j - i) * expMLintern * CalcDangleBoltzmann(type, i, j);
+		}
+		multi2.set(i, j - i, temp);
+
+		// Alpha_multi1
+		multi1.set(i, j - i, multi2.get(i, j - i) + multibif.get(i, j - i));
+
+		// Alpha_multi
+		multi.set(i, j - i, multi.get(i + 1, j - i - 1) * expMLbase * scale[1] + multibif.get(i, j - i));
+
+		// Alpha_stemend
+		if (j != n) {
+			temp = 0.0;
+			type = capr.PairType(i, j + 1);
+			if (type != 0) {
+				// StemEnd -> sn
+				temp = HairpinBoltzmann(type, i, j + 1) * scale[j - i];
+
+				// StemEnd -> sm_Stem_sn
+				for (int p = i; p <= Math.min(i + EnergyPar.MAXLOOP, j - EnergyPar.TURN - 2); p++) {
+					int u1 = p - i;
+					for (int q = Math.max(p + EnergyPar.TURN + 2, j - EnergyPar.MAXLOOP + u1); q <= j; q++) {
+						int type2 = capr.PairType(p + 1, q);
+						if (type2 != 0 && !(p == i && q == j)) {
+							double inner = stem.get(p, q - p);
+							if (inner != 0.0) {
+								temp += inner * LoopBoltzmann(type, EnergyPar.rtype[type2], i, j + 1, p + 1, q)
+										* scale[(j - i) - (q - p)];
+							}
+						}
+					}
+				}
+
+				// StemEnd -> Multi
+				int tt = EnergyPar.rtype[type];
+				temp += multi.get(i, j - i) * expMLclosing * expMLintern
+						* expdangle3[EnergyModel.dangleIndex(tt, seq[i + 1])]
+								* expdangle5[EnergyModel.dangleIndex(tt, seq[j])];
+			}
+			stemend.set(i, j - i, temp);
+		}
+	}
+
+	private void CalcOutsideVariable() {
+
+		int n = capr._seq_length;
+		int w = capr._maximal_span;
+
+		BandedMatrix alpha_stem = capr._Alpha_stem;
+		double[] outer = capr._Beta_outer;
+
+		// Beta_outer
+		outer[n] = 1.0;
+		for (int i = n - 1; i >= 0; i--) {
+			double temp = outer[i + 1] * scale[1];
+			for (int p = i + 1; p <= Math.min(i + w + 1, n); p++) {
+				double s = alpha_stem.get(i, p - i);
+				if (s != 0.0) {
+					int type = capr.PairType(i + 1, p);
+					temp += s * CalcDangleBoltzmann(type, i, p) * outer[p];
+				}
+			}
+			outer[i] = temp;
+		}
+
+		if (capr._pool == null) {
+			for (int q = n; q >= EnergyPar.TURN + 1; q--) {
+				for (int p = Math.max(0, q - w - 1); p <= q - EnergyPar.TURN; p++) {
+					CalcOutsideCell(p, q);
+				}
+			}
+		} else {
+			// all cells of a span depend on longer spans only
+			capr.MaterializeTables();
+			for (int d = Math.min(n, w + 1); d >= EnergyPar.TURN; d--) {
+				final int span = d;
+				RangeTask.run(capr._pool, Math.max(0, EnergyPar.TURN + 1 - span), n - span, capr._grain_size,
+						p -> CalcOutsideCell(p, p + span));
+			}
+		}
+	}
+
+	/**
+	 * Computes all outside weights of the subsequence <code>(p,q]</code>. Requires all
+	 * subsequences of longer span to be computed.
+	 */
+	private void CalcOutsideCell(int p, int q) {
+
+		int n = capr._seq_length;
+		int w = capr._maximal_span;
+
+		BandedMatrix alpha_multi1 = capr._Alpha_multi1;
+		BandedMatrix alpha_multi2 = capr._Alpha_multi2;
+		double[] alpha_outer = capr._Alpha_outer;
+
+		BandedMatrix stem = capr._Beta_stem;
+		BandedMatrix stemend = capr._Beta_stemend;
+		BandedMatrix multi = capr._Beta_multi;
+		BandedMatrix multibif = capr._Beta_multibif;
+		BandedMatrix multi1 = capr._Beta_multi1;
+		BandedMatrix multi2 = capr._Beta_multi2;
+		double[] outer = capr._Beta_outer;
+
+		double temp;
+		if (p != 0 && q != n) {
+			// Beta_stemend
+			stemend.set(p, q - p, (q - p >= w) ? 0.0 : stem.get(p - 1, q - p + 2) * scale[2]);
+
+			// Beta_Multi
+			temp = 0.0;
+			if (q - p + 1 <= w + 1) {
+				temp = multi.get(p - 1, q - p + 1) * expMLbase * scale[1];
+			}
+			int tt = EnergyPar.rtype[capr.PairType(p, q + 1)];
+			temp += stemend.get(p, q - p) * expMLclosing * expMLintern
+					* expdangle3[EnergyModel.dangleIndex(tt, seq[p + 1])]
+							* expdangle5[EnergyModel.dangleIndex(tt, seq[q])];
+			multi.set(p, q - p, temp);
+
+			// Beta_Multi1
+			temp = 0.0;
+			for (int k = q + 1; k <= Math.min(n, p + w); k++) {
+				temp += multibif.get(p, k - p) * alpha_multi2.get(q, k - q);
+			}
+			multi1.set(p, q - p, temp);
+
+			// Beta_Multi2
+			temp = multi1.get(p, q - p);
+			if (q - p <= w) {
+				temp += multi2.get(p, q - p + 1) * expMLbase * scale[1];
+			}
+			for (int k = Math.max(0, q - w); k < p; k++) {
+				temp += multibif.get(k, q - k) * alpha_multi1.get(k, p - k);
+			}
+			multi2.set(p, q - p, temp);
+
+			// Beta_multibif
+			multibif.set(p, q - p, multi1.get(p, q - p) + multi.get(p, q - p));
+		}
+
+		// Beta_stem
+		int type2 = capr.PairType(p + 1, q);
+		if (type2 != 0) {
+			temp = alpha_outer[p] * outer[q] * CalcDangleBoltzmann(type2, p, q);
+
+			int rtype2 = EnergyPar.rtype[type2];
+			for (int i = Math.max(1, p - EnergyPar.MAXLOOP); i <= p; i++) {
+				for (int j = q; j <= Math.min(Math.min(q + EnergyPar.MAXLOOP - p + i, i + w + 1), n - 1); j++) {
+					int type = capr.PairType(i, j + 1);
+					if (type != 0 && !(i == p && j == q)) {
+						double outside = stemend.get(i, j - i);
+						if (outside != 0.0) {
+							temp += outside * LoopBoltzmann(type, rtype2, i, j + 1, p + 1, q)
+									* scale[(j - i) - (q - p)];
+						}
+					}
+				}
+			}
+
+			if (p != 0 && q != n) {
+				int type = capr.PairType(p, q + 1);
+				if (type != 0 && q - p + 2 <= w + 1) {
+					temp += stem.get(p - 1, q - p + 2) * LoopBoltzmann(type, rtype2, p, q + 1, p + 1, q)
+							* scale[2];
+				}
+			}
+
+			temp += multi2.get(p, q - p) * expMLintern * CalcDangleBoltzmann(type2, p, q);
+			stem.set(p, q - p, temp);
+		} else {
+			stem.set(p, q - p, 0.0);
+		}
+	}
+
+	/**
+	 * Computes the structural profile from the scaled tables.
+	 * @see CapR#getStructuralProfile()
+	 */
+	double[] getStructuralProfile() {
+
+		final int n = capr._seq_length;
+		final double[] profile = new double[n * 5];
+
+		// the contexts are independent of each other
+		RangeTask.all(capr._pool,
+				() -> {
+					long start = System.nanoTime();
+					CalcBulgeAndInternalProbability(profile, 1 * n, 2 * n);
+					capr.Record(FoldPhase.BULGE_AND_INTERNAL, start);
+				},
+				() -> {
+					long start = System.nanoTime();
+					CalcHairpinProbability(profile, 0 * n);
+					capr.Record(FoldPhase.HAIRPIN, start);
+				},
+				() -> {
+					long start = System.nanoTime();
+					RangeTask.run(capr._pool, 1, n, capr._grain_size, x -> {
+						profile[4 * n + x - 1] = CalcExteriorProbability(x);
+						profile[3 * n + x - 1] = CalcMultiProbability(x);
+					});
+					capr.Record(FoldPhase.MULTI_AND_EXTERIOR, start);
+				});
+
+		return profile;
+	}
+
+	private double CalcExteriorProbability(int x) {
+		return capr._Alpha_outer[x - 1] * capr._Beta_outer[x] * scale[1] / capr._Alpha_outer[capr._seq_length];
+	}
+
+	private double CalcMultiProbability(int x) {
+
+		int n = capr._seq_length;
+		int w = capr._maximal_span;
+		double temp = 0.0;
+
+		for (int i = x; i <= Math.min(x + w, n); i++) {
+			temp += capr._Beta_multi.get(x - 1, i - x + 1) * capr._Alpha_multi.get(x, i - x);
+		}
+
+		for (int i = Math.max(0, x - w); i < x; i++) {
+			temp += capr._Beta_multi2.get(i, x - i) * capr._Alpha_multi2.get(i, x - i - 1);
+		}
+
+		return temp * scale[1] / capr._Alpha_outer[n];
+	}
+
+	private void CalcHairpinProbability(final double[] profile, final int hairpin_offset) {
+
+		final int n = capr._seq_length;
+		final int first = 1;
+		final int last = n - 1;
+
+		if (capr._pool == null) {
+			AccumulateHairpin(first, last, profile, hairpin_offset);
+		} else {
+			// accumulate chunks of closing pairs into separate arrays, merged in a fixed order
+			final int size = RangeTask.chunkSize(first, last, capr._grain_size);
+			final double[][] partial = new double[RangeTask.chunks(first, last, size)][];
+			RangeTask.run(capr._pool, 0, partial.length - 1, 1, c -> {
+				partial[c] = new double[n];
+				AccumulateHairpin(first + c * size, Math.min(last, first + (c + 1) * size - 1), partial[c], 0);
+			});
+			for (double[] local : partial) {
+				for (int x = 0; x < n; x++) {
+					profile[hairpin_offset + x] += local[x];
+				}
+			}
+		}
+
+		// recover the per position weights from the difference array
+		double pf = capr._Alpha_outer[n];
+		double hairpin = 0.0;
+		for (int x = 0; x < n; x++) {
+			hairpin += profile[hairpin_offset + x];
+			profile[hairpin_offset + x] = hairpin > 0.0 ? hairpin / pf : 0.0;
+		}
+	}
+
+	/**
+	 * Adds the scaled Boltzmann weight of every hairpin closed by a base pair <code>(i,j)</code>
+	 * with <code>from &lt;= i &lt;= to</code> to a difference array, i.e. at position
+	 * <code>i+1</code> and, negated, at position <code>j</code>.
+	 */
+	private void AccumulateHairpin(int from, int to, double[] profile, int hairpin_offset) {
+
+		int n = capr._seq_length;
+		int w = capr._maximal_span;
+		BandedMatrix stemend = capr._Beta_stemend;
+
+		for (int i = from; i <= to; i++) {
+			for (int j = i + 2; j <= Math.min(i + w, n); j++) {
+				double outside = stemend.get(i, j - i - 1);
+				if (outside != 0.0) {
+					int type = capr.PairType(i, j);
+					double temp = outside * HairpinBoltzmann(type, i, j) * scale[j - i - 1];
+					profile[hairpin_offset + i] += temp;
+					profile[hairpin_offset + j - 1] -= temp;
+				}
+			}
+		}
+	}
+
+	private void CalcBulgeAndInternalProbability(final double[] profile, final int bulge_offset, final int internal_offset) {
+
+		final int n = capr._seq_length;
+		final int first = 1;
+		final int last = n - EnergyPar.TURN - 3;
+
+		if (capr._pool == null) {
+			AccumulateBulgeAndInternal(first, last, profile, bulge_offset, internal_offset);
+		} else {
+			// accumulate chunks of closing pairs into separate arrays, merged in a fixed order
+			final int size = RangeTask.chunkSize(first, last, capr._grain_size);
+			final double[][] partial = new double[RangeTask.chunks(first, last, size)][];
+			RangeTask.run(capr._pool, 0, partial.length - 1, 1, c -> {
+				partial[c] = new double[2 * n];
+				AccumulateBulgeAndInternal(first + c * size, Math.min(last, first + (c + 1) * size - 1), partial[c], 0, n);
+			});
+			for (double[] local : partial) {
+				for (int x = 0; x < n; x++) {
+					profile[bulge_offset + x] += local[x];
+					profile[internal_offset + x] += local[n + x];
+				}
+			}
+		}
+
+		// recover the per position weights from the difference arrays
+		double pf = capr._Alpha_outer[n];
+		double bulge = 0.0;
+		double internal = 0.0;
+		for (int x = 0; x < n; x++) {
+			bulge += profile[bulge_offset + x];
+			internal += profile[internal_offset + x];
+			profile[bulge_offset + x] = bulge > 0.0 ? bulge / pf : 0.0;
+			profile[internal_offset + x] = internal > 0.0 ? internal / pf : 0.0;
+		}
+	}
+
+	/**
+	 * Adds the scaled Boltzmann weights of all bulge and internal loops closed by a base pair
+	 * <code>(i,j)</code> with <code>from &lt;= i &lt;= to</code> to difference arrays, i.e. at the
+	 * first and, negated, after the last unpaired position of each side of the loop.
+	 */
+	private void AccumulateBulgeAndInternal(int from, int to, double[] profile, int bulge_offset, int internal_offset) {
+
+		int n = capr._seq_length;
+		int w = capr._maximal_span;
+		BandedMatrix stemend = capr._Beta_stemend;
+		BandedMatrix stem = capr._Alpha_stem;
+
+		for (int i = from; i <= to; i++) {
+			for (int j = i + EnergyPar.TURN + 3; j <= Math.min(i + w, n); j++) {
+				int type = capr.PairType(i, j);
+				double outside = stemend.get(i, j - i - 1);
+				if (type != 0 && outside != 0.0) {
+					for (int p = i + 1; p <= Math.min(i + EnergyPar.MAXLOOP + 1, j - EnergyPar.TURN - 2); p++) {
+						int u1 = p - i - 1;
+						for (int q = Math.max(p + EnergyPar.TURN + 1, j - EnergyPar.MAXLOOP + u1 - 1); q < j; q++) {
+							int type2 = capr.PairType(p, q);
+							if (type2 != 0 && !(p == i + 1 && q == j - 1)) {
+								double inside = stem.get(p - 1, q - p + 1);
+								if (inside != 0.0) {
+									double temp = outside * LoopBoltzmann(type, EnergyPar.rtype[type2], i, j, p, q)
+											* inside * scale[u1 + j - q - 1];
+
+									// unpaired positions i+1..p-1
+									if (p > i + 1) {
+										int offset = (j == q + 1) ? bulge_offset : internal_offset;
+										profile[offset + i] += temp;
+										profile[offset + p - 1] -= temp;
+									}
+
+									// unpaired positions q+1..j-1
+									if (j > q + 1) {
+										int offset = (i == p - 1) ? bulge_offset : internal_offset;
+										profile[offset + q] += temp;
+										profile[offset + j - 1] -= temp;
+									}
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private double CalcDangleBoltzmann(int type, int a, int b) {
+		double x = 1.0;
+		if (type != 0) {
+			if (a > 0)
+				x *= expdangle5[EnergyModel.dangleIndex(type, seq[a])];
+			if (b < capr._seq_length)
+				x *= expdangle3[EnergyModel.dangleIndex(type, seq[b + 1])];
+			if (b == capr._seq_length && type > 2) {
+				x *= expTermAU;
+			}
+		}
+		return (x);
+	}
+
+	/**
+	 * Boltzmann factor of <code>CapR.LoopEnergy</code>
+	 */
+	private double LoopBoltzmann(int type, int type2, int i, int j, int p, int q) {
+		double z = 0;
+		int u1 = p - i - 1;
+		int u2 = j - q - 1;
+
+		if ((u1 == 0) && (u2 == 0)) {
+			z = expstack[EnergyModel.stackIndex(type, type2)];
+		} else {
+			if ((u1 == 0) || (u2 == 0)) {
+				int u;
+				u = u1 == 0 ? u2 : u1;
+				z = u <= 30 ? expbulge[u]
+						: Math.exp(capr.bulge[30] - EnergyPar.lxc37 * Math.log(u / 30.) * 10. / kT);
+
+				if (u == 1) {
+					z *= expstack[EnergyModel.stackIndex(type, type2)];
+				} else {
+					if (type > 2) {
+						z *= expTermAU;
+					}
+					if (type2 > 2) {
+						z *= expTermAU;
+					}
+				}
+			} else {
+				if (u1 + u2 == 2) {
+					z = expint11[EnergyModel.int11Index(type, type2, seq[i + 1], seq[j - 1])];
+				} else if ((u1 == 1) && (u2 == 2)) {
+					z = expint21[EnergyModel.int21Index(type, type2, seq[i + 1], seq[q + 1], seq[j - 1])];
+				} else if ((u1 == 2) && (u2 == 1)) {
+					z = expint21[EnergyModel.int21Index(type2, type, seq[q + 1], seq[i + 1], seq[p - 1])];
+				} else if ((u1 == 2) && (u2 == 2)) {
+					z = expint22[EnergyModel.int22Index(type, type2, seq[i + 1], seq[p - 1], seq[q + 1], seq[j - 1])];
+				} else {
+					z = expinternal[u1 + u2] * expmismatchI[EnergyModel.mismatchIndex(type, seq[i + 1], seq[j - 1])]
+							* expmismatchI[EnergyModel.mismatchIndex(type2, seq[q + 1], seq[p - 1])];
+					z *= expninio[Math.abs(u1 - u2)];
+				}
+			}
+		}
+		return z;
+	}
+
+	/**
+	 * Boltzmann factor of <code>CapR.HairpinEnergy</code>
+	 */
+	private double HairpinBoltzmann(int type, int i, int j) {
+		int d = j - i - 1;
+		double q = exphp[d];
+
+		if (d != 3) {
+			q *= expmismatchH[EnergyModel.mismatchIndex(type, seq[i + 1], seq[j - 1])];
+		} else {
+			if (type > 2) {
+				q *= expTermAU;
+			}
+		}
+		return q;
+	}
+
+}
@@ -0,0 +1,210 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * @author Jan Hoinka
+ *
+ * Local folding in the manner of RNAplfold. Instead of folding a long sequence as a whole,
+ * every window of <code>window_size</code> consecutive nucleotides is folded with base pairs
+ * spanning at most <code>maximal_span</code> nucleotides, and the structural profile of each
+ * position is the average of its profiles over all windows containing it.
+ *
+ * The dynamic programming tables only ever cover a single window, so the memory of a fold
+ * is bounded by <code>window_size * maximal_span</code> per thread regardless of the length
+ * of the sequence, and only the resulting profile grows with it. This allows to profile
+ * transcripts and genomic regions which are far too long for a global fold.
+ */
+public class SlidingWindowFold {
+
+	/**
+	 * Number of consecutive windows folded by a single task
+	 */
+	private static final int WINDOWS_PER_TASK = 16;
+
+	/**
+	 * Number of tasks whose partial sums are merged at once. Bounds the memory held by
+	 * partial sums independently of the sequence length.
+	 */
+	private static final int TASKS_PER_ROUND = 64;
+
+	/**
+	 * Number of structural contexts of a profile
+	 */
+	private static final int CONTEXTS = 5;
+
+	private final CapRPool pool;
+
+	private final int window_size;
+
+	private final int maximal_span;
+
+	/**
+	 * Distance between the start positions of consecutive windows
+	 */
+	private int stride = 1;
+
+	/**
+	 * @param pool the workspaces to fold the windows with
+	 * @param window_size the number of nucleotides of a window (<code>W</code> in RNAplfold)
+	 * @param maximal_span the maximal span of a base pair (<code>L</code> in RNAplfold), at most <code>window_size</code>
+	 */
+	public SlidingWindowFold(CapRPool pool, int window_size, int maximal_span) {
+
+		if (window_size < 1 || maximal_span < 1 || maximal_span > window_size) {
+			throw new IllegalArgumentException("The window size (" + window_size + ") and maximal span (" + maximal_span + ") must be positive and the span must not exceed the window size");
+		}
+
+		this.pool = pool;
+		this.window_size = window_size;
+		this.maximal_span = maximal_span;
+
+	}
+
+	/**
+	 * Only folds every <code>stride</code>-th window, plus the last one. Larger values trade
+	 * accuracy for speed. Defaults to 1, i.e. all windows as done by RNAplfold.
+	 * @param stride
+	 */
+	public void setStride(int stride) {
+		if (stride < 1) {
+			throw new IllegalArgumentException("The stride (" + stride + ") must be positive");
+		}
+		this.stride = stride;
+	}
+
+	public int getStride() {
+		return stride;
+	}
+
+	public int getWindowSize() {
+		return window_size;
+	}
+
+	public int getMaximalSpan() {
+		return maximal_span;
+	}
+
+	/**
+	 * Computes the window averaged profile on the calling thread
+	 * @param sequence
+	 * @return the profile in the layout of <code>CapR.getStructuralProfile</code>
+	 */
+	public double[] getStructuralProfile(byte[] sequence) {
+
+		return getStructuralProfile(sequence, Runnable::run);
+
+	}
+
+	/**
+	 * Computes the window averaged profile, folding the windows on <code>executor</code>.
+	 * The result does not depend on the executor.
+	 * @param sequence
+	 * @param executor
+	 * @return the profile in the layout of <code>CapR.getStructuralProfile</code>
+	 * @throws CompletionException if a fold failed or the calling thread was interrupted
+	 */
+	public double[] getStructuralProfile(final byte[] sequence, Executor executor) {
+
+		final int n = sequence.length;
+
+		// a single window
+		if (n <= window_size) {
+			return pool.getStructuralProfile(sequence, Math.min(maximal_span, n));
+		}
+
+		final int windows = windowCount(n);
+		double[] profile = new double[CONTEXTS * n];
+
+		// the windows are processed in rounds, merging the partial sums of each round in order
+		int per_round = WINDOWS_PER_TASK * TASKS_PER_ROUND;
+		for (int first = 0; first < windows; first += per_round) {
+
+			final int round_first = first;
+			final int round_windows = Math.min(per_round, windows - first);
+			final double[][] partial = new double[(round_windows + WINDOWS_PER_TASK - 1) / WINDOWS_PER_TASK][];
+
+			CapRPool.forEachChunk(round_windows, WINDOWS_PER_TASK, executor,
+					(from, to) -> partial[from / WINDOWS_PER_TASK] = foldWindows(sequence, round_first + from, round_first + to));
+
+			for (int t = 0; t < partial.length; t++) {
+				int base = windowStart(round_first + t * WINDOWS_PER_TASK, n);
+				int length = partial[t].length / CONTEXTS;
+				for (int c = 0; c < CONTEXTS; c++) {
+					for (int x = 0; x < length; x++) {
+						profile[c * n + base + x] += partial[t][c * length + x];
+					}
+				}
+			}
+		}
+
+		// average over the number of windows containing each position
+		int[] coverage = new int[n + 1];
+		for (int k = 0; k < windows; k++) {
+			int start = windowStart(k, n);
+			coverage[start]++;
+			coverage[start + window_size]--;
+		}
+		int covered = 0;
+		for (int x = 0; x < n; x++) {
+			covered += coverage[x];
+			for (int c = 0; c < CONTEXTS; c++) {
+				profile[c * n + x] /= covered;
+			}
+		}
+
+		return profile;
+
+	}
+
+	/**
+	 * Folds the windows <code>[from,to)</code> on a single pooled workspace and sums their
+	 * profiles, relative to the start of window <code>from</code>
+	 */
+	private double[] foldWindows(byte[] sequence, int from, int to) {
+
+		int n = sequence.length;
+		int base = windowStart(from, n);
+		int length = windowStart(to - 1, n) - base + window_size;
+		double[] sum = new double[CONTEXTS * length];
+
+		CapR capr = pool.acquire();
+		try {
+			for (int k = from; k < to; k++) {
+				int start = windowStart(k, n);
+				capr.ComputeStructuralProfile(Arrays.copyOfRange(sequence, start, start + window_size), maximal_span);
+				double[] window = capr.getStructuralProfile();
+				for (int c = 0; c < CONTEXTS; c++) {
+					for (int x = 0; x < window_size; x++) {
+						sum[c * length + start - base + x] += window[c * window_size + x];
+					}
+				}
+			}
+		} finally {
+			pool.release(capr);
+		}
+
+		return sum;
+
+	}
+
+	/**
+	 * The number of windows folded for a sequence of length <code>n &gt; window_size</code>
+	 */
+	private int windowCount(int n) {
+		return (n - window_size + stride - 1) / stride + 1;
+	}
+
+	/**
+	 * The start of the k-th window, the last window always ends with the sequence
+	 */
+	private int windowStart(int k, int n) {
+		return Math.min(k * stride, n - window_size);
+	}
+
+}
@@ -0,0 +1,29 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+/**
+ * @author Jan Hoinka
+ *
+ * The precision in which the inside and outside tables of CapR are stored, selected per
+ * instance via <code>CapR.setTablePrecision</code>. All arithmetic, as well as the outer
+ * tables holding the partition function, remain in double precision.
+ */
+public enum TablePrecision {
+
+	/**
+	 * Cells are stored as doubles. This is the default.
+	 */
+	DOUBLE,
+
+	/**
+	 * Cells are stored as floats, which halves the memory of the tables. Log-space values
+	 * keep a relative precision of about <code>6e-8</code>, i.e. an absolute one of
+	 * <code>6e-8 * |x|</code>, which carries over to the probabilities of long sequences
+	 * with large partition functions. The scaled linear engine, whose weights exceed the
+	 * range of a float, is not available, and folds use <code>Engine.LOG</code> instead.
+	 */
+	FLOAT
+
+}
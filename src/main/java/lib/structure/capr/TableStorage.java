@@ -0,0 +1,40 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+/**
+ * @author Jan Hoinka
+ *
+ * The memory the inside and outside tables of CapR are stored in, selected per instance
+ * via <code>CapR.setTableStorage</code>. A table holds <code>(n + 1) * (W + 2)</code> cells
+ * for a sequence of length <code>n</code> and a maximal span <code>W</code>, so that a global
+ * fold of a sequence of 50000 nucleotides exceeds both the 2^31 cells of a Java array and
+ * any practical heap.
+ */
+public enum TableStorage {
+
+	/**
+	 * Cells are stored in a Java array on the heap. This is the fastest storage and the
+	 * default, but limits a table to 2^31 cells.
+	 */
+	HEAP,
+
+	/**
+	 * Cells are stored outside of the heap in direct buffers of at most 1 GB each, which
+	 * are addressed with long indices. Their size is limited by
+	 * <code>-XX:MaxDirectMemorySize</code> instead of the heap, which defaults to the
+	 * maximum heap size <code>-Xmx</code>. Raise it accordingly, or use <code>MAPPED</code>
+	 * for folds whose tables exceed the physical memory.
+	 */
+	DIRECT,
+
+	/**
+	 * Cells are stored in temporary files of the spill directory, which are mapped into
+	 * memory in segments of at most 1 GB each. The operating system pages the tables
+	 * between memory and the local disk, so that folds are only limited by the free disk
+	 * space. The files are deleted as soon as they are mapped.
+	 */
+	MAPPED
+
+}
@@ -0,0 +1,60 @@
+package gui.aptatrace.logo;
+
+import java.util.function.Supplier;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event spanning <code>Logo.saveAsPDF</code>, i.e. rendering a sequence
+ * logo and writing it to a PDF file. 
+ */
+@Name("gui.aptatrace.logo.Render")
+@Label("Logo Render")
+@Category("CapR")
+@Description("Rendering of a sequence logo to PDF")
+class JfrLogoRenderEvent extends jdk.jfr.Event implements LogoRenderEvent
+{
+	/**
+	 * The factory handed out by <code>lib.structure.capr.FlightRecording.events</code>
+	 */
+	static final Supplier<LogoRenderEvent> CONSTRUCTOR = JfrLogoRenderEvent::new;
+	
+	@Label("File Name")
+	String fileName;
+	
+	@Label("Positions")
+	int positions;
+	
+	@Label("Letters")
+	int letters;
+	
+	@Label("Width")
+	int width;
+	
+	@Label("Height")
+	int height;
+	
+	/**
+	 * Records the event, if enabled
+	 * @param logo the rendered logo
+	 * @param width
+	 * @param height
+	 * @param fileName
+	 */
+	@Override
+	public void commit(Logo logo, int width, int height, String fileName)
+	{
+		if (shouldCommit())
+		{
+			this.fileName = fileName;
+			this.positions = logo.data[0].length;
+			this.letters = logo.data.length;
+			this.width = width;
+			this.height = height;
+			commit();
+		}
+	}
+}
@@ -0,0 +1,68 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import java.util.function.Supplier;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * @author Jan Hoinka
+ *
+ * Flight recorder event spanning <code>CapR.ComputeStructuralProfile</code>, i.e. the
+ * initialization and the inside and outside recursions of a fold.
+ */
+@Name("lib.structure.capr.Fold")
+@Label("CapR Fold")
+@Category("CapR")
+@Description("Inside and outside recursions of a sequence")
+@StackTrace(false)
+class JfrFoldEvent extends jdk.jfr.Event implements FoldEvent {
+
+	/**
+	 * Creates new events. Unlike a reflective constructor call, the compiler inlines the
+	 * reference, so that escape analysis removes events which are never committed.
+	 */
+	static final Supplier<FoldEvent> CONSTRUCTOR = JfrFoldEvent::new;
+
+	@Label("Sequence Length")
+	int length;
+
+	@Label("Maximal Span")
+	int maximalSpan;
+
+	@Label("Engine")
+	@Description("The engine the tables were computed with")
+	String engine;
+
+	@Label("Logsumexp Kernel")
+	String kernel;
+
+	@Label("Workspace Size")
+	@DataAmount
+	long workspaceBytes;
+
+	/**
+	 * Records the event, if enabled, with the state of <code>capr</code> after the fold
+	 */
+	@Override
+	public void commit(CapR capr) {
+
+		if (shouldCommit()) {
+			length = capr._seq_length;
+			maximalSpan = capr._maximal_span;
+			engine = capr._computed_engine.name();
+			kernel = capr._logsumexp.name();
+			workspaceBytes = capr.getWorkspaceBytes();
+			commit();
+		}
+
+	}
+
+}
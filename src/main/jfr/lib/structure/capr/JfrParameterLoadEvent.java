@@ -0,0 +1,56 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import java.util.function.Supplier;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * @author Jan Hoinka
+ *
+ * Flight recorder event spanning the loading of the default loop energy parameters, which
+ * delays the first fold of a JVM. <code>InitLoops</code> copies them without an event of
+ * its own.
+ */
+@Name("lib.structure.capr.ParameterLoad")
+@Label("CapR Parameter Load")
+@Category("CapR")
+@Description("Loading of the default loop energy parameters")
+class JfrParameterLoadEvent extends jdk.jfr.Event implements ParameterLoadEvent {
+
+	/**
+	 * The factory handed out by <code>FlightRecording.events</code>
+	 */
+	static final Supplier<ParameterLoadEvent> CONSTRUCTOR = JfrParameterLoadEvent::new;
+
+	@Label("Target")
+	@Description("The resource read")
+	String target;
+
+	@Label("Size")
+	@DataAmount
+	long bytes;
+
+	/**
+	 * Records the event, if enabled
+	 * @param target
+	 * @param bytes the size of the loaded tables
+	 */
+	@Override
+	public void commit(String target, long bytes) {
+
+		if (shouldCommit()) {
+			this.target = target;
+			this.bytes = bytes;
+			commit();
+		}
+
+	}
+
+}
@@ -0,0 +1,62 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import java.util.function.Supplier;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * @author Jan Hoinka
+ *
+ * Flight recorder event spanning <code>CapR.getStructuralProfile</code>
+ */
+@Name("lib.structure.capr.Profile")
+@Label("CapR Profile")
+@Category("CapR")
+@Description("Structural profile computed from the tables of a fold")
+@StackTrace(false)
+class JfrProfileEvent extends jdk.jfr.Event implements ProfileEvent {
+
+	/**
+	 * The factory handed out by <code>FlightRecording.events</code>
+	 */
+	static final Supplier<ProfileEvent> CONSTRUCTOR = JfrProfileEvent::new;
+
+	@Label("Sequence Length")
+	int length;
+
+	@Label("Maximal Span")
+	int maximalSpan;
+
+	@Label("Engine")
+	@Description("The engine the tables were computed with")
+	String engine;
+
+	@Label("Workspace Size")
+	@DataAmount
+	long workspaceBytes;
+
+	/**
+	 * Records the event, if enabled, with the state of <code>capr</code>
+	 */
+	@Override
+	public void commit(CapR capr) {
+
+		if (shouldCommit()) {
+			length = capr._seq_length;
+			maximalSpan = capr._maximal_span;
+			engine = capr._computed_engine.name();
+			workspaceBytes = capr.getWorkspaceBytes();
+			commit();
+		}
+
+	}
+
+}
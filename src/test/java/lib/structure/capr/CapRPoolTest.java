@@ -0,0 +1,154 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Jan Hoinka
+ *
+ * Batch folding of <code>CapRPool</code>
+ */
+public class CapRPoolTest {
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(3);
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		executor.shutdownNow();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Random sequences of varying length, so that tasks complete out of order
+	 */
+	static List<byte[]> sequences(int count, long seed) {
+
+		Random random = new Random(seed);
+		List<byte[]> sequences = new ArrayList<byte[]>();
+		for (int s = 0; s < count; s++) {
+			byte[] sequence = new byte[20 + random.nextInt(80)];
+			for (int x = 0; x < sequence.length; x++) {
+				sequence[x] = CapR.NUCLEOTIDES[1 + random.nextInt(4)];
+			}
+			sequences.add(sequence);
+		}
+		return sequences;
+
+	}
+
+	@Test
+	public void profilesAreReturnedInInputOrder() {
+
+		List<byte[]> sequences = sequences(40, 1);
+		CapRPool pool = new CapRPool();
+		pool.setBatchSize(3);
+
+		List<double[]> profiles = pool.profileAll(sequences, 0, executor);
+
+		assertEquals(sequences.size(), profiles.size());
+		CapR capr = new CapR();
+		for (int s = 0; s < sequences.size(); s++) {
+			capr.ComputeStructuralProfile(sequences.get(s), sequences.get(s).length);
+			assertArrayEquals("sequence " + s, capr.getStructuralProfile(), profiles.get(s), 0.0);
+		}
+
+	}
+
+	@Test
+	public void profilesCanBeComputedFromATaskOfTheExecutor() throws Exception {
+
+		final List<byte[]> sequences = sequences(12, 2);
+		final CapRPool pool = new CapRPool();
+		pool.setBatchSize(1);
+
+		// every thread of the executor is busy with a batch waiting for its own tasks
+		List<Future<List<double[]>>> batches = new ArrayList<Future<List<double[]>>>();
+		for (int b = 0; b < 3; b++) {
+			batches.add(executor.submit(() -> pool.profileAll(sequences, 30, executor)));
+		}
+		for (Future<List<double[]>> batch : batches) {
+			assertEquals(sequences.size(), batch.get(30, TimeUnit.SECONDS).size());
+		}
+
+	}
+
+	@Test
+	public void failuresAreRethrown() {
+
+		List<byte[]> sequences = sequences(10, 3);
+		CapRPool pool = new CapRPool();
+		pool.setBatchSize(2);
+
+		try {
+			pool.profileAll(sequences, 0, executor, (index, sequence, profile) -> {
+				if (index == 5) {
+					throw new IllegalStateException("callback " + index);
+				}
+			});
+			fail("The failing callback was not reported");
+		} catch (CompletionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+
+	}
+
+	@Test
+	public void interruptsAreReportedWithoutLaterCallbacks() throws InterruptedException {
+
+		final Thread caller = Thread.currentThread();
+		final AtomicInteger callbacks = new AtomicInteger();
+		List<byte[]> sequences = sequences(24, 4);
+		CapRPool pool = new CapRPool();
+		pool.setBatchSize(1);
+
+		try {
+			pool.profileAll(sequences, 0, executor, (index, sequence, profile) -> {
+				if (Thread.currentThread() == caller) {
+					caller.interrupt();
+				} else {
+					try {
+						Thread.sleep(20);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				callbacks.incrementAndGet();
+			});
+			fail("The interrupt was not reported");
+		} catch (CompletionException e) {
+			assertTrue(e.getCause() instanceof InterruptedException);
+		}
+
+		// the interrupt is kept, and no callback runs after the batch returned
+		assertTrue(Thread.interrupted());
+		int returned = callbacks.get();
+		Thread.sleep(200);
+		assertEquals(returned, callbacks.get());
+
+	}
+
+}
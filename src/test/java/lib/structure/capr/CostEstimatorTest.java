@@ -0,0 +1,47 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+/**
+ * @author Jan Hoinka
+ *
+ * Calibration of <code>CostEstimator</code>
+ */
+public class CostEstimatorTest {
+
+	@Test
+	public void floatTablesCalibrateTheLogEngine() {
+
+		CostEstimator estimator = new CostEstimator();
+		double linear = estimator.getNanosPerOperation(Engine.SCALED_LINEAR);
+		double log = estimator.getNanosPerOperation(Engine.LOG);
+
+		CapR capr = new CapR();
+		capr.setEngine(Engine.SCALED_LINEAR);
+		capr.setTablePrecision(TablePrecision.FLOAT);
+		double measured = estimator.calibrate(capr, 100, 50);
+
+		assertEquals(linear, estimator.getNanosPerOperation(Engine.SCALED_LINEAR), 0.0);
+		assertEquals(measured, estimator.getNanosPerOperation(Engine.LOG), 0.0);
+		assertNotEquals(log, measured, 0.0);
+
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void parallelInstancesAreNotCalibrated() {
+
+		CapR capr = new CapR();
+		capr.setParallelism(ForkJoinPool.commonPool(), 16);
+		new CostEstimator().calibrate(capr, 100, 50);
+
+	}
+
+}
@@ -0,0 +1,100 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Jan Hoinka
+ *
+ * Folds computed in parallel with <code>setParallelism</code> against serial folds
+ */
+public class ParallelFoldTest {
+
+	/**
+	 * Chunk-local accumulators of the parallel profile are merged in a different order
+	 * than the serial sums
+	 */
+	private static final double PROFILE_TOLERANCE = 1e-10;
+
+	private static ForkJoinPool pool;
+
+	@BeforeClass
+	public static void setUp() {
+		pool = new ForkJoinPool(4);
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * A few fixed sequences: random ones, a GC-rich stem and one shorter than the span
+	 */
+	static List<byte[]> sequences() {
+
+		List<byte[]> sequences = CapRPoolTest.sequences(3, 9);
+		sequences.add("GGGGCCCGCGGGCAAAAGCCCGCGGGCCCCUUUUGGGGCCCGCGGGCAAAAGCCCGCGGGCCCC".getBytes());
+		sequences.add("ACGUACGUAC".getBytes());
+		return sequences;
+
+	}
+
+	private static BandedMatrix[] tables(CapR capr) {
+		return new BandedMatrix[] { capr._Alpha_stem, capr._Alpha_stemend, capr._Alpha_multi, capr._Alpha_multibif, capr._Alpha_multi1,
+				capr._Alpha_multi2, capr._Beta_stem, capr._Beta_stemend, capr._Beta_multi, capr._Beta_multibif, capr._Beta_multi1,
+				capr._Beta_multi2 };
+	}
+
+	private static void assertSameFold(Engine engine, byte[] sequence, int maximal_span) {
+
+		CapR serial = new CapR();
+		serial.setEngine(engine);
+		CapR parallel = new CapR();
+		parallel.setEngine(engine);
+		parallel.setParallelism(pool, 2);
+
+		// the second fold reuses the tables of the first
+		for (int round = 0; round < 2; round++) {
+			serial.ComputeStructuralProfile(sequence, maximal_span);
+			parallel.ComputeStructuralProfile(sequence, maximal_span);
+
+			BandedMatrix[] expected = tables(serial);
+			BandedMatrix[] actual = tables(parallel);
+			for (int t = 0; t < expected.length; t++) {
+				for (int i = 0; i <= sequence.length; i++) {
+					for (int span = 0; span < expected[t].cols; span++) {
+						assertEquals(engine + " table " + t + " cell " + i + "," + span, expected[t].get(i, span), actual[t].get(i, span), 0.0);
+					}
+				}
+			}
+			assertArrayEquals(engine + " outer", serial._Alpha_outer, parallel._Alpha_outer, 0.0);
+
+			assertArrayEquals(engine + " profile", serial.getStructuralProfile(), parallel.getStructuralProfile(), PROFILE_TOLERANCE);
+		}
+
+	}
+
+	@Test
+	public void parallelTablesEqualSerialTables() {
+
+		for (Engine engine : Engine.values()) {
+			for (byte[] sequence : sequences()) {
+				assertSameFold(engine, sequence, sequence.length);
+				assertSameFold(engine, sequence, 30);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,301 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Jan Hoinka
+ *
+ * Ordering, backpressure, errors and cancellation of <code>ProfileProcessor</code>
+ */
+public class ProfileProcessorTest {
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(3);
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		executor.shutdownNow();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Publishes a list of sequences on demand, or all of them at once if
+	 * <code>ignore_demand</code> is set
+	 */
+	static class ListPublisher implements ProfileFlow.Publisher<byte[]> {
+
+		private final List<byte[]> sequences;
+
+		private final boolean ignore_demand;
+
+		private ProfileFlow.Subscriber<? super byte[]> subscriber;
+
+		private int next = 0;
+
+		private long demand = 0;
+
+		private boolean emitting = false;
+
+		volatile boolean cancelled = false;
+
+		ListPublisher(List<byte[]> sequences, boolean ignore_demand) {
+			this.sequences = sequences;
+			this.ignore_demand = ignore_demand;
+		}
+
+		@Override
+		public void subscribe(ProfileFlow.Subscriber<? super byte[]> subscriber) {
+
+			this.subscriber = subscriber;
+			subscriber.onSubscribe(new ProfileFlow.Subscription() {
+				@Override
+				public void request(long n) {
+					emit(n);
+				}
+
+				@Override
+				public void cancel() {
+					cancelled = true;
+				}
+			});
+
+		}
+
+		private synchronized void emit(long n) {
+
+			demand += n;
+			if (emitting) {
+				return;
+			}
+			emitting = true;
+			while (!cancelled && next < sequences.size() && (demand > 0 || ignore_demand)) {
+				demand--;
+				subscriber.onNext(sequences.get(next++));
+			}
+			if (!cancelled && next == sequences.size()) {
+				next++;
+				subscriber.onComplete();
+			}
+			emitting = false;
+
+		}
+
+	}
+
+	/**
+	 * Collects all signals, requesting <code>batch</code> profiles at a time up to
+	 * <code>limit</code> profiles, after which it cancels
+	 */
+	static class CollectingSubscriber implements ProfileFlow.Subscriber<ProfileResult> {
+
+		final List<ProfileResult> results = Collections.synchronizedList(new ArrayList<ProfileResult>());
+
+		final CountDownLatch terminated = new CountDownLatch(1);
+
+		volatile Throwable error = null;
+
+		volatile boolean completed = false;
+
+		private final int batch;
+
+		private final int limit;
+
+		private ProfileFlow.Subscription subscription;
+
+		private int outstanding = 0;
+
+		CollectingSubscriber(int batch, int limit) {
+			this.batch = batch;
+			this.limit = limit;
+		}
+
+		@Override
+		public void onSubscribe(ProfileFlow.Subscription subscription) {
+			this.subscription = subscription;
+			outstanding = batch;
+			subscription.request(batch);
+		}
+
+		@Override
+		public void onNext(ProfileResult item) {
+			results.add(item);
+			if (results.size() == limit) {
+				subscription.cancel();
+				terminated.countDown();
+			} else if (--outstanding == 0) {
+				outstanding = batch;
+				subscription.request(batch);
+			}
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			error = throwable;
+			terminated.countDown();
+		}
+
+		@Override
+		public void onComplete() {
+			completed = true;
+			terminated.countDown();
+		}
+
+		void await() throws InterruptedException {
+			assertTrue("The stream did not terminate", terminated.await(60, TimeUnit.SECONDS));
+		}
+
+	}
+
+	/**
+	 * Instances failing to fold sequences of <code>length</code> nucleotides
+	 */
+	static CapRPool failingPool(final int length) {
+
+		return new CapRPool(() -> new CapR() {
+			@Override
+			public void ComputeStructuralProfile(byte[] sequence, int maximal_span) {
+				if (sequence.length == length) {
+					throw new IllegalStateException("Cannot fold " + length + " nucleotides");
+				}
+				super.ComputeStructuralProfile(sequence, maximal_span);
+			}
+		});
+
+	}
+
+	@Test
+	public void profilesAreDeliveredInInputOrder() throws InterruptedException {
+
+		List<byte[]> sequences = CapRPoolTest.sequences(30, 5);
+		ProfileProcessor processor = new ProfileProcessor(new CapRPool(), 0, executor, 4);
+		CollectingSubscriber subscriber = new CollectingSubscriber(1, Integer.MAX_VALUE);
+		processor.subscribe(subscriber);
+		new ListPublisher(sequences, false).subscribe(processor);
+
+		subscriber.await();
+
+		assertNull(subscriber.error);
+		assertTrue(subscriber.completed);
+		assertEquals(sequences.size(), subscriber.results.size());
+		CapR capr = new CapR();
+		for (int s = 0; s < sequences.size(); s++) {
+			ProfileResult result = subscriber.results.get(s);
+			assertEquals(s, result.getIndex());
+			assertSame(sequences.get(s), result.getSequence());
+			capr.ComputeStructuralProfile(sequences.get(s), sequences.get(s).length);
+			assertArrayEquals(capr.getStructuralProfile(), result.getProfile(), 0.0);
+		}
+
+	}
+
+	@Test
+	public void failingFoldsAreSignalledAndCancelUpstream() throws InterruptedException {
+
+		List<byte[]> sequences = CapRPoolTest.sequences(30, 6);
+		int failing = sequences.get(10).length;
+		ProfileProcessor processor = new ProfileProcessor(failingPool(failing), 0, executor, 4);
+		CollectingSubscriber subscriber = new CollectingSubscriber(2, Integer.MAX_VALUE);
+		processor.subscribe(subscriber);
+		ListPublisher publisher = new ListPublisher(sequences, false);
+		publisher.subscribe(processor);
+
+		subscriber.await();
+
+		assertTrue(subscriber.error instanceof IllegalStateException);
+		assertFalse(subscriber.completed);
+		assertTrue(publisher.cancelled);
+		for (ProfileResult result : subscriber.results) {
+			assertTrue(result.getSequence().length != failing);
+		}
+
+	}
+
+	@Test
+	public void upstreamErrorsAreForwarded() throws InterruptedException {
+
+		ProfileProcessor processor = new ProfileProcessor(new CapRPool(), 0, executor, 4);
+		CollectingSubscriber subscriber = new CollectingSubscriber(1, Integer.MAX_VALUE);
+		processor.subscribe(subscriber);
+
+		final IllegalArgumentException failure = new IllegalArgumentException("upstream");
+		processor.onSubscribe(new ProfileFlow.Subscription() {
+			@Override
+			public void request(long n) {
+			}
+
+			@Override
+			public void cancel() {
+			}
+		});
+		processor.onError(failure);
+
+		subscriber.await();
+
+		assertSame(failure, subscriber.error);
+		assertTrue(subscriber.results.isEmpty());
+
+	}
+
+	@Test
+	public void cancellationStopsDeliveryAndCancelsUpstream() throws InterruptedException {
+
+		List<byte[]> sequences = CapRPoolTest.sequences(30, 7);
+		ProfileProcessor processor = new ProfileProcessor(new CapRPool(), 0, executor, 4);
+		CollectingSubscriber subscriber = new CollectingSubscriber(1, 5);
+		processor.subscribe(subscriber);
+		ListPublisher publisher = new ListPublisher(sequences, false);
+		publisher.subscribe(processor);
+
+		subscriber.await();
+		Thread.sleep(200);
+
+		assertTrue(publisher.cancelled);
+		assertEquals(5, subscriber.results.size());
+		assertNull(subscriber.error);
+		assertFalse(subscriber.completed);
+
+	}
+
+	@Test
+	public void sequencesBeyondTheDemandFailTheStream() throws InterruptedException {
+
+		List<byte[]> sequences = CapRPoolTest.sequences(10, 8);
+		ProfileProcessor processor = new ProfileProcessor(new CapRPool(), 0, executor, 3);
+		CollectingSubscriber subscriber = new CollectingSubscriber(1, Integer.MAX_VALUE);
+		ListPublisher publisher = new ListPublisher(sequences, true);
+		publisher.subscribe(processor);
+		processor.subscribe(subscriber);
+
+		subscriber.await();
+
+		assertTrue(subscriber.error instanceof IllegalStateException);
+		assertTrue(publisher.cancelled);
+		assertTrue(subscriber.results.size() <= 3);
+
+	}
+
+}
@@ -0,0 +1,72 @@
+/**
+ *
+ */
+package lib.structure.capr;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Jan Hoinka
+ *
+ * Folds with tables outside of the heap against folds with heap tables
+ */
+public class TableStorageTest {
+
+	@Rule
+	public TemporaryFolder spill_directory = new TemporaryFolder();
+
+	private CapR instance(TableStorage storage, TablePrecision precision) {
+
+		CapR capr = new CapR();
+		capr.setTablePrecision(precision);
+		capr.setSpillDirectory(spill_directory.getRoot());
+		capr.setTableStorage(storage);
+		return capr;
+
+	}
+
+	@Test
+	public void offHeapProfilesEqualHeapProfiles() {
+
+		for (TablePrecision precision : TablePrecision.values()) {
+			CapR heap = instance(TableStorage.HEAP, precision);
+			CapR direct = instance(TableStorage.DIRECT, precision);
+			CapR mapped = instance(TableStorage.MAPPED, precision);
+
+			for (byte[] sequence : ParallelFoldTest.sequences()) {
+				for (int maximal_span : new int[] { sequence.length, 30 }) {
+					heap.ComputeStructuralProfile(sequence, maximal_span);
+					double[] expected = heap.getStructuralProfile();
+
+					direct.ComputeStructuralProfile(sequence, maximal_span);
+					assertArrayEquals(precision + " direct", expected, direct.getStructuralProfile(), 0.0);
+
+					mapped.ComputeStructuralProfile(sequence, maximal_span);
+					assertArrayEquals(precision + " mapped", expected, mapped.getStructuralProfile(), 0.0);
+				}
+			}
+		}
+
+	}
+
+	@Test
+	public void rowsReadTheDefaultValueAfterTheSegmentLayoutChanged() {
+
+		// segments of 64 bytes hold four rows of two doubles, but no row of sixteen
+		OffHeapBandedMatrix matrix = new OffHeapBandedMatrix(TableStorage.DIRECT, TablePrecision.DOUBLE, null, 64);
+		matrix.reshape(4, 2);
+		matrix.clear(-1.0);
+		matrix.set(0, 0, 5.0);
+
+		matrix.reshape(4, 16);
+
+		assertEquals(-1.0, matrix.get(0, 0), 0.0);
+
+	}
+
+}